@@ -0,0 +1,287 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import lombok.NonNull;
+import net.md_5.bungee.api.config.ServerInfo;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * This class is a non-blocking counterpart to {@link RedisBungeeAPI}. You obtain an instance of this object by invoking
+ * {@link RedisBungee#getAsyncApi()}.
+ * <p>
+ * Every method returns a {@link ListenableFuture}. Answers RedisBungee already holds locally are returned as completed
+ * futures; everything else is fetched on the RedisBungee executor, so the calling thread is never blocked on Redis or
+ * Mojang. Listeners attached to the returned futures may run on that executor and should not block it either.
+ *
+ * @since 0.4
+ */
+public class AsyncRedisBungeeAPI {
+    private final RedisBungee plugin;
+
+    AsyncRedisBungeeAPI(RedisBungee plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Get the last time a player was on. If the player is currently online, this will return 0. If the player has not been recorded,
+     * this will return -1. Otherwise it will return a value in milliseconds.
+     *
+     * @param player a player UUID
+     * @return a future for the last time a player was on
+     * @see RedisBungeeAPI#getLastOnline(UUID)
+     */
+    public final ListenableFuture<Long> getLastOnline(@NonNull UUID player) {
+        return plugin.getDataManager().getLastOnlineAsync(player);
+    }
+
+    /**
+     * Get the server where the specified player is playing.
+     *
+     * @param player a player UUID
+     * @return a future for the {@link ServerInfo} of the server the player is on, or null if they are offline
+     * @see RedisBungeeAPI#getServerFor(UUID)
+     */
+    public final ListenableFuture<ServerInfo> getServerFor(@NonNull UUID player) {
+        return Futures.transform(plugin.getDataManager().getServerAsync(player), new Function<String, ServerInfo>() {
+            @Override
+            public ServerInfo apply(String server) {
+                return server == null ? null : plugin.getProxy().getServerInfo(server);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Get a combined list of players on this network.
+     *
+     * @return a future for an immutable Set with all players found
+     * @see RedisBungeeAPI#getPlayersOnline()
+     */
+    public final ListenableFuture<Set<UUID>> getPlayersOnline() {
+        return submit(new Callable<Set<UUID>>() {
+            @Override
+            public Set<UUID> call() throws Exception {
+                return plugin.getPlayers();
+            }
+        });
+    }
+
+    /**
+     * Get a combined list of players on this network, as a collection of usernames.
+     *
+     * @return a future for a collection with the names of all players found
+     * @see RedisBungeeAPI#getHumanPlayersOnline()
+     */
+    public final ListenableFuture<Collection<String>> getHumanPlayersOnline() {
+        return submit(new Callable<Collection<String>>() {
+            @Override
+            public Collection<String> call() throws Exception {
+                return RedisBungee.getApi().getHumanPlayersOnline();
+            }
+        });
+    }
+
+    /**
+     * Get a full list of players on all servers.
+     *
+     * @return a future for an immutable Multimap with all players found
+     * @see RedisBungeeAPI#getServerToPlayers()
+     */
+    public final ListenableFuture<Multimap<String, UUID>> getServerToPlayers() {
+        Multimap<String, UUID> cached = plugin.getCachedServersToPlayers();
+        if (cached != null)
+            return Futures.immediateFuture(cached);
+
+        return submit(new Callable<Multimap<String, UUID>>() {
+            @Override
+            public Multimap<String, UUID> call() throws Exception {
+                return plugin.serversToPlayers();
+            }
+        });
+    }
+
+    /**
+     * Get a list of players on the server with the given name.
+     *
+     * @param server a server name
+     * @return a future for a Set with all players found on this server
+     * @see RedisBungeeAPI#getPlayersOnServer(String)
+     */
+    public final ListenableFuture<Set<UUID>> getPlayersOnServer(@NonNull final String server) {
+        return Futures.transform(getServerToPlayers(), new Function<Multimap<String, UUID>, Set<UUID>>() {
+            @Override
+            public Set<UUID> apply(Multimap<String, UUID> input) {
+                return ImmutableSet.copyOf(input.get(server));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Get a list of players on the specified proxy.
+     *
+     * @param server a proxy ID
+     * @return a future for a Set with all UUIDs found on this proxy
+     * @see RedisBungeeAPI#getPlayersOnProxy(String)
+     */
+    public final ListenableFuture<Set<UUID>> getPlayersOnProxy(@NonNull final String server) {
+        return submit(new Callable<Set<UUID>>() {
+            @Override
+            public Set<UUID> call() throws Exception {
+                return plugin.getPlayersOnProxy(server);
+            }
+        });
+    }
+
+    /**
+     * Convenience method: Checks if the specified player is online.
+     *
+     * @param player a player UUID
+     * @return a future for whether the player is online
+     */
+    public final ListenableFuture<Boolean> isPlayerOnline(@NonNull UUID player) {
+        return Futures.transform(getLastOnline(player), new Function<Long, Boolean>() {
+            @Override
+            public Boolean apply(Long input) {
+                return input == 0;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Get the {@link InetAddress} associated with this player.
+     *
+     * @param player the player to fetch the IP for
+     * @return a future for the address if the player is online, null otherwise
+     */
+    public final ListenableFuture<InetAddress> getPlayerIp(@NonNull UUID player) {
+        return plugin.getDataManager().getIpAsync(player);
+    }
+
+    /**
+     * Get the RedisBungee proxy ID this player is connected to.
+     *
+     * @param player the player to fetch the proxy for
+     * @return a future for the proxy the player is connected to, or null if they are offline
+     */
+    public final ListenableFuture<String> getProxy(@NonNull UUID player) {
+        return plugin.getDataManager().getProxyAsync(player);
+    }
+
+    /**
+     * Sends a proxy command to all proxies.
+     *
+     * @param command the command to send and execute
+     * @return a future that completes once the command has been published
+     */
+    public final ListenableFuture<Void> sendProxyCommand(@NonNull String command) {
+        return sendProxyCommand("allservers", command);
+    }
+
+    /**
+     * Sends a proxy command to the proxy with the given ID. "allservers" means all proxies.
+     *
+     * @param proxyId a proxy ID
+     * @param command the command to send and execute
+     * @return a future that completes once the command has been published
+     */
+    public final ListenableFuture<Void> sendProxyCommand(@NonNull final String proxyId, @NonNull final String command) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                plugin.sendProxyCommand(proxyId, command);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sends a message to a PubSub channel.
+     *
+     * @param channel The PubSub channel
+     * @param message the message body to send
+     * @return a future that completes once the message has been published
+     * @see RedisBungeeAPI#sendChannelMessage(String, String)
+     */
+    public final ListenableFuture<Void> sendChannelMessage(@NonNull final String channel, @NonNull final String message) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                plugin.sendChannelMessage(channel, message);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Fetch a name from the specified UUID, falling back to Mojang as a last resort.
+     *
+     * @param uuid the UUID to fetch the name for
+     * @return a future for the name for the UUID
+     */
+    public final ListenableFuture<String> getNameFromUuid(@NonNull UUID uuid) {
+        return getNameFromUuid(uuid, true);
+    }
+
+    /**
+     * Fetch a name from the specified UUID. Mojang is only asked if {@code expensiveLookups} is true.
+     *
+     * @param uuid             the UUID to fetch the name for
+     * @param expensiveLookups whether or not to perform potentially expensive lookups
+     * @return a future for the name for the UUID
+     */
+    public final ListenableFuture<String> getNameFromUuid(@NonNull final UUID uuid, final boolean expensiveLookups) {
+        String cached = plugin.getUuidTranslator().getCachedName(uuid);
+        if (cached != null)
+            return Futures.immediateFuture(cached);
+
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return plugin.getUuidTranslator().getNameFromUuid(uuid, expensiveLookups);
+            }
+        });
+    }
+
+    /**
+     * Fetch a UUID from the specified name, falling back to Mojang as a last resort.
+     *
+     * @param name the name to fetch the UUID for
+     * @return a future for the UUID for the name
+     */
+    public final ListenableFuture<UUID> getUuidFromName(@NonNull String name) {
+        return getUuidFromName(name, true);
+    }
+
+    /**
+     * Fetch a UUID from the specified name. Mojang is only asked if {@code expensiveLookups} is true.
+     *
+     * @param name             the name to fetch the UUID for
+     * @param expensiveLookups whether or not to perform potentially expensive lookups
+     * @return a future for the UUID for the name
+     */
+    public final ListenableFuture<UUID> getUuidFromName(@NonNull final String name, final boolean expensiveLookups) {
+        UUID cached = plugin.getUuidTranslator().getCachedUuid(name);
+        if (cached != null)
+            return Futures.immediateFuture(cached);
+
+        return submit(new Callable<UUID>() {
+            @Override
+            public UUID call() throws Exception {
+                return plugin.getUuidTranslator().getTranslatedUuid(name, expensiveLookups);
+            }
+        });
+    }
+
+    private <T> ListenableFuture<T> submit(Callable<T> task) {
+        return plugin.getAsyncExecutor().submit(task);
+    }
+}
@@ -0,0 +1,341 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.imaginarycode.minecraft.redisbungee.events.PubSubMessageEvent;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Pushes player counts, and optionally rosters, to backend servers that subscribed through {@link PluginMessageV2},
+ * so they don't have to poll.
+ * <p>
+ * The roster is kept up to date from the JOIN, LEAVE and SERVER_CHANGE messages on {@code redisbungee-data}, and
+ * compared against Redis every {@link #RESYNC_SECONDS} seconds in case a message was missed. Changes are collected and
+ * sent at most every {@link #UPDATE_INTERVAL_MS} milliseconds.
+ * <p>
+ * Updates are sent on the {@code V2Update} subchannel, chunked like V2 responses, under the ID of the
+ * {@code Subscribe} request. An update is {@code boolean full, int networkCount}, then {@code int servers} and for each
+ * {@code UTF server, int count}; for roster subscriptions it continues with {@code int placed} and for each
+ * {@code UUID player, UTF server}, then {@code int left} and that many UUIDs. A full update replaces everything the
+ * backend knew, a partial one only lists what changed. Backends without players can't be reached, and get a full
+ * update once they can again.
+ * <p>
+ * Subscriptions are leases: a backend renews one by sending the same {@code Subscribe} again within
+ * {@link #LEASE_MS}, otherwise it is dropped. That way the subscriptions of a backend that restarted or crashed don't
+ * linger, or count against its limit.
+ */
+class BackendSubscriptions implements Listener {
+    static final String SUBCHANNEL = "V2Update";
+    private static final int MAX_SUBSCRIPTIONS_PER_SERVER = 8;
+    private static final long LEASE_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long UPDATE_INTERVAL_MS = 500;
+    private static final long RESYNC_SECONDS = 30;
+    private static final String NOWHERE = "";
+    private final RedisBungee plugin;
+    private final JsonParser parser = new JsonParser();
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+    // The server each player on the network is on, as far as we know.
+    private final Map<UUID, String> locations = new HashMap<>();
+    private final Multiset<String> counts = HashMultiset.create();
+    private final Set<String> changedServers = new HashSet<>();
+    private final Map<UUID, String> placed = new HashMap<>();
+    private final Set<UUID> left = new HashSet<>();
+    private Map<UUID, String> lastDifferences = Collections.emptyMap();
+    private boolean flushScheduled;
+
+    BackendSubscriptions(final RedisBungee plugin) {
+        this.plugin = plugin;
+        plugin.getProxy().getScheduler().schedule(plugin, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resync();
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.WARNING, "Unable to refresh the roster for subscribed servers", e);
+                }
+            }
+        }, RESYNC_SECONDS, RESYNC_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds a subscription, or renews it if the server already has one with this ID.
+     *
+     * @return false if the server already has too many subscriptions
+     */
+    boolean subscribe(ServerInfo server, int id, boolean roster) {
+        String key = key(server, id);
+        Multimap<String, UUID> serverToPlayers = null;
+        while (true) {
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                dropExpired(now);
+                Subscription subscription = subscriptions.get(key);
+                if (subscription != null) {
+                    subscription.expiry = now + LEASE_MS;
+                    if (subscription.roster != roster) {
+                        subscription.roster = roster;
+                        subscription.needsFull = true;
+                    }
+                    break;
+                }
+                int existing = 0;
+                for (Subscription other : subscriptions.values()) {
+                    if (other.server.getName().equals(server.getName()))
+                        existing++;
+                }
+                if (existing >= MAX_SUBSCRIPTIONS_PER_SERVER)
+                    return false;
+                if (!subscriptions.isEmpty() || serverToPlayers != null) {
+                    if (subscriptions.isEmpty()) {
+                        // Nothing was tracked while nobody was subscribed.
+                        load(serverToPlayers);
+                    }
+                    subscriptions.put(key, new Subscription(server, id, roster, now + LEASE_MS));
+                    break;
+                }
+            }
+            // Asking Redis takes a while, so don't hold up the pub/sub handler and flushes meanwhile.
+            serverToPlayers = plugin.serversToPlayers();
+        }
+        scheduleFlush();
+        return true;
+    }
+
+    synchronized void unsubscribe(ServerInfo server, int id) {
+        subscriptions.remove(key(server, id));
+        stopTrackingIfIdle();
+    }
+
+    private void dropExpired(long now) {
+        Iterator<Subscription> it = subscriptions.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiry < now)
+                it.remove();
+        }
+        stopTrackingIfIdle();
+    }
+
+    private void stopTrackingIfIdle() {
+        if (subscriptions.isEmpty()) {
+            locations.clear();
+            counts.clear();
+            clearChanges();
+        }
+    }
+
+    private static String key(ServerInfo server, int id) {
+        return server.getName() + '\0' + id;
+    }
+
+    @EventHandler
+    public void onPubSubMessage(PubSubMessageEvent event) {
+        if (!event.getChannel().equals("redisbungee-data"))
+            return;
+
+        synchronized (this) {
+            if (subscriptions.isEmpty())
+                return;
+
+            JsonObject jsonObject = parser.parse(event.getMessage()).getAsJsonObject();
+            DataManager.DataManagerMessage.Action action = DataManager.DataManagerMessage.Action.valueOf(jsonObject.get("action").getAsString());
+            UUID target = RedisBungee.getGson().fromJson(jsonObject.get("target"), UUID.class);
+            switch (action) {
+                case JOIN:
+                    // The player has no server until the SERVER_CHANGE that follows.
+                    break;
+                case LEAVE:
+                    move(target, null);
+                    break;
+                case SERVER_CHANGE:
+                    DataManager.DataManagerMessage<DataManager.ServerChangePayload> message = RedisBungee.getGson().fromJson(jsonObject,
+                            new TypeToken<DataManager.DataManagerMessage<DataManager.ServerChangePayload>>() {
+                            }.getType());
+                    move(target, message.getPayload().getServer());
+                    break;
+            }
+        }
+        scheduleFlush();
+    }
+
+    private void resync() {
+        synchronized (this) {
+            dropExpired(System.currentTimeMillis());
+            if (subscriptions.isEmpty())
+                return;
+        }
+        Multimap<String, UUID> serverToPlayers = plugin.serversToPlayers();
+        synchronized (this) {
+            if (subscriptions.isEmpty())
+                return;
+            Map<UUID, String> current = new HashMap<>();
+            for (Map.Entry<String, UUID> entry : serverToPlayers.entries()) {
+                current.put(entry.getValue(), entry.getKey());
+            }
+            // Redis' answer may be a few seconds old, so only trust a difference once it shows up twice in a row.
+            Map<UUID, String> differences = new HashMap<>();
+            for (UUID player : locations.keySet()) {
+                if (!current.containsKey(player))
+                    differences.put(player, NOWHERE);
+            }
+            for (Map.Entry<UUID, String> entry : current.entrySet()) {
+                if (!entry.getValue().equals(locations.get(entry.getKey())))
+                    differences.put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<UUID, String> entry : differences.entrySet()) {
+                if (entry.getValue().equals(lastDifferences.get(entry.getKey())))
+                    move(entry.getKey(), entry.getValue().equals(NOWHERE) ? null : entry.getValue());
+            }
+            lastDifferences = differences;
+        }
+        scheduleFlush();
+    }
+
+    private void load(Multimap<String, UUID> serverToPlayers) {
+        lastDifferences = Collections.emptyMap();
+        locations.clear();
+        counts.clear();
+        clearChanges();
+        for (Map.Entry<String, UUID> entry : serverToPlayers.entries()) {
+            locations.put(entry.getValue(), entry.getKey());
+            counts.add(entry.getKey());
+        }
+    }
+
+    /**
+     * Records that a player moved to a server, or left the network if {@code server} is null.
+     */
+    private void move(UUID player, String server) {
+        String previous = server == null ? locations.remove(player) : locations.put(player, server);
+        if (previous != null) {
+            counts.remove(previous);
+            changedServers.add(previous);
+        }
+        if (server != null) {
+            counts.add(server);
+            changedServers.add(server);
+            placed.put(player, server);
+            left.remove(player);
+        } else if (previous != null) {
+            placed.remove(player);
+            left.add(player);
+        }
+    }
+
+    private void clearChanges() {
+        changedServers.clear();
+        placed.clear();
+        left.clear();
+    }
+
+    private synchronized void scheduleFlush() {
+        if (flushScheduled)
+            return;
+        flushScheduled = true;
+        plugin.getProxy().getScheduler().schedule(plugin, new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        if (subscriptions.isEmpty())
+            return;
+
+        byte[][] partial = new byte[2][];
+        byte[][] full = new byte[2][];
+        boolean changed = !changedServers.isEmpty();
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.server.getPlayers().isEmpty()) {
+                // Anything sent now would be queued until someone joins, and be out of date by then.
+                subscription.needsFull = true;
+                continue;
+            }
+            if (!subscription.needsFull && !changed)
+                continue;
+
+            int variant = subscription.roster ? 1 : 0;
+            byte[] update;
+            if (subscription.needsFull) {
+                if (full[variant] == null)
+                    full[variant] = encode(true, subscription.roster);
+                update = full[variant];
+            } else {
+                if (partial[variant] == null)
+                    partial[variant] = encode(false, subscription.roster);
+                update = partial[variant];
+            }
+            subscription.needsFull = false;
+            for (byte[] chunk : PluginMessageV2.chunk(SUBCHANNEL, subscription.id, update)) {
+                subscription.server.sendData("RedisBungee", chunk);
+            }
+        }
+        clearChanges();
+    }
+
+    private byte[] encode(boolean full, boolean roster) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeBoolean(full);
+        out.writeInt(locations.size());
+
+        Collection<String> servers = full ? counts.elementSet() : changedServers;
+        out.writeInt(servers.size());
+        for (String server : servers) {
+            out.writeUTF(server);
+            out.writeInt(counts.count(server));
+        }
+
+        if (roster) {
+            Map<UUID, String> players = full ? locations : placed;
+            out.writeInt(players.size());
+            for (Map.Entry<UUID, String> entry : players.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeUTF(entry.getValue());
+            }
+            Collection<UUID> gone = full ? Collections.<UUID>emptySet() : left;
+            out.writeInt(gone.size());
+            for (UUID player : gone) {
+                out.writeLong(player.getMostSignificantBits());
+                out.writeLong(player.getLeastSignificantBits());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Subscription {
+        private final ServerInfo server;
+        private final int id;
+        private boolean roster;
+        private long expiry;
+        private boolean needsFull = true;
+
+        Subscription(ServerInfo server, int id, boolean roster, long expiry) {
+            this.server = server;
+            this.id = id;
+            this.roster = roster;
+            this.expiry = expiry;
+        }
+    }
+}
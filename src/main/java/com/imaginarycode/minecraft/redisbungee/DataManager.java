@@ -1,8 +1,12 @@
 package com.imaginarycode.minecraft.redisbungee;
 
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -11,6 +15,7 @@ import com.imaginarycode.minecraft.redisbungee.events.PlayerChangedServerNetwork
 import com.imaginarycode.minecraft.redisbungee.events.PlayerJoinedNetworkEvent;
 import com.imaginarycode.minecraft.redisbungee.events.PlayerLeftNetworkEvent;
 import com.imaginarycode.minecraft.redisbungee.events.PubSubMessageEvent;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
@@ -19,9 +24,13 @@ import net.md_5.bungee.api.event.PostLoginEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
 import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
 
 import java.net.InetAddress;
-import java.util.Objects;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -34,21 +43,50 @@ import java.util.logging.Level;
  * @since 0.3.3
  */
 public class DataManager implements Listener {
+    private static final long ABSENT_TTL = TimeUnit.SECONDS.toMillis(30);
+    // How long last online times restored from a snapshot are trusted, counted from when the snapshot was written.
+    private static final long RESTORED_TTL = TimeUnit.MINUTES.toMillis(5);
+    private static final long NOT_CACHED = Long.MIN_VALUE;
+    private static final byte[] SERVER = SafeEncoder.encode("server");
+    private static final byte[] PROXY = SafeEncoder.encode("proxy");
+    private static final byte[] IP = SafeEncoder.encode("ip");
+    private static final byte[] ONLINE = SafeEncoder.encode("online");
+    private static final Function<String, String> AS_STRING = Functions.identity();
+    private static final Function<String, InetAddress> AS_ADDRESS = new Function<String, InetAddress>() {
+        @Override
+        public InetAddress apply(String input) {
+            return InetAddresses.forString(input);
+        }
+    };
+
     private final RedisBungee plugin;
-    private final Cache<UUID, String> serverCache = createCache();
-    private final Cache<UUID, String> proxyCache = createCache();
-    private final Cache<UUID, InetAddress> ipCache = createCache();
-    private final Cache<UUID, Long> lastOnlineCache = createCache();
+    private final Cache<UUID, Object> serverCache;
+    private final Cache<UUID, Object> proxyCache;
+    private final Cache<UUID, Object> ipCache;
+    private final Cache<UUID, Object> lastOnlineCache;
 
     public DataManager(RedisBungee plugin) {
+        this(plugin, false);
+    }
+
+    /**
+     * @param tracked whether Redis pushes invalidations for player hashes to us, see {@link KeyTrackingListener}
+     */
+    DataManager(RedisBungee plugin, boolean tracked) {
         this.plugin = plugin;
+        // Entries can't silently go stale once Redis tells us about every change, so keep them around much longer.
+        long expiry = tracked ? 24 : 1;
+        this.serverCache = createCache(expiry);
+        this.proxyCache = createCache(expiry);
+        this.ipCache = createCache(expiry);
+        this.lastOnlineCache = createCache(expiry);
     }
 
-    private static <K, V> Cache<K, V> createCache() {
+    private static <K, V> Cache<K, V> createCache(long expiryHours) {
         // TODO: Allow customization via cache specification, ala ServerListPlus
         return CacheBuilder.newBuilder()
                 .maximumSize(1000)
-                .expireAfterWrite(1, TimeUnit.HOURS)
+                .expireAfterWrite(expiryHours, TimeUnit.HOURS)
                 .build();
     }
 
@@ -61,17 +99,8 @@ public class DataManager implements Listener {
             return player.getServer() != null ? player.getServer().getInfo().getName() : null;
 
         try {
-            return serverCache.get(uuid, new Callable<String>() {
-                @Override
-                public String call() throws Exception {
-                    try (Jedis tmpRsc = plugin.getPool().getResource()) {
-                        return Objects.requireNonNull(tmpRsc.hget("player:" + uuid, "server"), "user not found");
-                    }
-                }
-            });
+            return lookup(serverCache, uuid, SERVER, AS_STRING);
         } catch (ExecutionException | UncheckedExecutionException e) {
-            if (e.getCause() instanceof NullPointerException && e.getCause().getMessage().equals("user not found"))
-                return null; // HACK
             plugin.getLogger().log(Level.SEVERE, "Unable to get server", e);
             throw new RuntimeException("Unable to get server for " + uuid, e);
         }
@@ -84,17 +113,8 @@ public class DataManager implements Listener {
             return RedisBungee.getConfiguration().getId();
 
         try {
-            return proxyCache.get(uuid, new Callable<String>() {
-                @Override
-                public String call() throws Exception {
-                    try (Jedis tmpRsc = plugin.getPool().getResource()) {
-                        return Objects.requireNonNull(tmpRsc.hget("player:" + uuid, "proxy"), "user not found");
-                    }
-                }
-            });
+            return lookup(proxyCache, uuid, PROXY, AS_STRING);
         } catch (ExecutionException | UncheckedExecutionException e) {
-            if (e.getCause() instanceof NullPointerException && e.getCause().getMessage().equals("user not found"))
-                return null; // HACK
             plugin.getLogger().log(Level.SEVERE, "Unable to get proxy", e);
             throw new RuntimeException("Unable to get proxy for " + uuid, e);
         }
@@ -107,20 +127,8 @@ public class DataManager implements Listener {
             return player.getAddress().getAddress();
 
         try {
-            return ipCache.get(uuid, new Callable<InetAddress>() {
-                @Override
-                public InetAddress call() throws Exception {
-                    try (Jedis tmpRsc = plugin.getPool().getResource()) {
-                        String result = tmpRsc.hget("player:" + uuid, "ip");
-                        if (result == null)
-                            throw new NullPointerException("user not found");
-                        return InetAddresses.forString(result);
-                    }
-                }
-            });
+            return lookup(ipCache, uuid, IP, AS_ADDRESS);
         } catch (ExecutionException | UncheckedExecutionException e) {
-            if (e.getCause() instanceof NullPointerException && e.getCause().getMessage().equals("user not found"))
-                return null; // HACK
             plugin.getLogger().log(Level.SEVERE, "Unable to get IP", e);
             throw new RuntimeException("Unable to get IP for " + uuid, e);
         }
@@ -133,28 +141,137 @@ public class DataManager implements Listener {
             return 0;
 
         try {
-            return lastOnlineCache.get(uuid, new Callable<Long>() {
+            return this.<Long>lookup(lastOnlineCache, uuid, new Callable<Object>() {
                 @Override
-                public Long call() throws Exception {
+                public Object call() throws Exception {
                     try (Jedis tmpRsc = plugin.getPool().getResource()) {
-                        String result = tmpRsc.hget("player:" + uuid, "online");
-                        return result == null ? -1 : Long.valueOf(result);
+                        byte[] result = tmpRsc.hget(RedisKeys.player(uuid), ONLINE);
+                        return result == null ? -1L : Long.parseLong(SafeEncoder.encode(result));
                     }
                 }
             });
-        } catch (ExecutionException e) {
+        } catch (ExecutionException | UncheckedExecutionException e) {
             plugin.getLogger().log(Level.SEVERE, "Unable to get last time online", e);
             throw new RuntimeException("Unable to get last time online for " + uuid, e);
         }
     }
 
-    private void invalidate(UUID uuid) {
+    public ListenableFuture<String> getServerAsync(final UUID uuid) {
+        ProxiedPlayer player = plugin.getProxy().getPlayer(uuid);
+
+        if (player != null)
+            return Futures.immediateFuture(player.getServer() != null ? player.getServer().getInfo().getName() : null);
+
+        return lookupAsync(serverCache, uuid, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getServer(uuid);
+            }
+        });
+    }
+
+    public ListenableFuture<String> getProxyAsync(final UUID uuid) {
+        ProxiedPlayer player = plugin.getProxy().getPlayer(uuid);
+
+        if (player != null)
+            return Futures.immediateFuture(RedisBungee.getConfiguration().getId());
+
+        return lookupAsync(proxyCache, uuid, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getProxy(uuid);
+            }
+        });
+    }
+
+    public ListenableFuture<InetAddress> getIpAsync(final UUID uuid) {
+        ProxiedPlayer player = plugin.getProxy().getPlayer(uuid);
+
+        if (player != null)
+            return Futures.immediateFuture(player.getAddress().getAddress());
+
+        return lookupAsync(ipCache, uuid, new Callable<InetAddress>() {
+            @Override
+            public InetAddress call() throws Exception {
+                return getIp(uuid);
+            }
+        });
+    }
+
+    public ListenableFuture<Long> getLastOnlineAsync(final UUID uuid) {
+        ProxiedPlayer player = plugin.getProxy().getPlayer(uuid);
+
+        if (player != null)
+            return Futures.immediateFuture(0L);
+
+        return lookupAsync(lastOnlineCache, uuid, new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return getLastOnline(uuid);
+            }
+        });
+    }
+
+    /**
+     * Completes straight away from the cache if it holds a usable value, and otherwise runs the blocking lookup on the
+     * RedisBungee executor.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> ListenableFuture<T> lookupAsync(Cache<UUID, Object> cache, UUID uuid, Callable<T> blocking) {
+        Object value = cache.getIfPresent(uuid);
+        if (value instanceof Provisional) {
+            if (!((Provisional) value).isExpired())
+                return Futures.immediateFuture((T) ((Provisional) value).getValue());
+        } else if (value != null) {
+            return Futures.immediateFuture((T) value);
+        }
+        return plugin.getAsyncExecutor().submit(blocking);
+    }
+
+    /**
+     * Looks up a field of the player's hash through the given cache. Players Redis knows nothing about are cached as
+     * {@link Provisional} markers, which expire much sooner than real values and are dropped as soon as the player joins.
+     */
+    private <T> T lookup(Cache<UUID, Object> cache, final UUID uuid, final byte[] field, final Function<String, T> converter) throws ExecutionException {
+        return lookup(cache, uuid, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try (Jedis tmpRsc = plugin.getPool().getResource()) {
+                    byte[] result = tmpRsc.hget(RedisKeys.player(uuid), field);
+                    return result == null ? Provisional.absent() : converter.apply(SafeEncoder.encode(result));
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T lookup(Cache<UUID, Object> cache, UUID uuid, Callable<Object> loader) throws ExecutionException {
+        Object value = cache.get(uuid, loader);
+        if (value instanceof Provisional) {
+            if (((Provisional) value).isExpired()) {
+                cache.asMap().remove(uuid, value);
+                value = cache.get(uuid, loader);
+            }
+            if (value instanceof Provisional)
+                return (T) ((Provisional) value).getValue();
+        }
+        return (T) value;
+    }
+
+    void invalidate(UUID uuid) {
         ipCache.invalidate(uuid);
         lastOnlineCache.invalidate(uuid);
         serverCache.invalidate(uuid);
         proxyCache.invalidate(uuid);
     }
 
+    void invalidateAll() {
+        ipCache.invalidateAll();
+        lastOnlineCache.invalidateAll();
+        serverCache.invalidateAll();
+        proxyCache.invalidateAll();
+    }
+
     @EventHandler
     public void onPostLogin(PostLoginEvent event) {
         // Invalidate all entries related to this player, since they now lie.
@@ -186,6 +303,7 @@ public class DataManager implements Listener {
             case JOIN:
                 final DataManagerMessage<LoginPayload> message1 = RedisBungee.getGson().fromJson(jsonObject, new TypeToken<DataManagerMessage<LoginPayload>>() {
                 }.getType());
+                serverCache.invalidate(message1.getTarget());
                 proxyCache.put(message1.getTarget(), message1.getSource());
                 lastOnlineCache.put(message1.getTarget(), (long) 0);
                 ipCache.put(message1.getTarget(), message1.getPayload().getAddress());
@@ -222,6 +340,108 @@ public class DataManager implements Listener {
         }
     }
 
+    /**
+     * Writes the last online times we hold of offline players that came straight from Redis or the network, one record
+     * per player: the UUID, the last online time and then the server, proxy and IP as length-prefixed UTF-8. The
+     * server, proxy and IP are always written as not cached (length -1), since whether a player is online can't be
+     * trusted across a restart. Provisional entries are left out, so restored data is never carried forward.
+     */
+    List<byte[]> snapshot() {
+        List<byte[]> records = new ArrayList<>();
+        for (UUID uuid : lastOnlineCache.asMap().keySet()) {
+            Object lastOnline = confirmed(lastOnlineCache, uuid);
+            if (lastOnline == null || (Long) lastOnline <= 0)
+                continue;
+
+            ByteBuffer buffer = ByteBuffer.allocate(16 + 8 + 3 * snapshotLength(null));
+            buffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+            buffer.putLong((Long) lastOnline);
+            putSnapshotString(buffer, null);
+            putSnapshotString(buffer, null);
+            putSnapshotString(buffer, null);
+            records.add(buffer.array());
+        }
+        return records;
+    }
+
+    /**
+     * Restores records written by {@link #snapshot()}. Only the last online times of players that were offline are
+     * restored: players who left while this proxy was down would otherwise still show up as online, since their LEAVE
+     * never reached us. Servers, proxies and IPs in snapshots written by earlier versions are ignored. Restored times
+     * are only trusted for a few minutes after the snapshot was written, and never replace data we already hold.
+     *
+     * @return how many players were restored
+     */
+    int restore(List<ByteBuffer> records, long writtenAt) {
+        long expiresAt = writtenAt + RESTORED_TTL;
+        if (expiresAt <= System.currentTimeMillis())
+            return 0;
+
+        int restored = 0;
+        for (ByteBuffer record : records) {
+            UUID uuid = new UUID(record.getLong(), record.getLong());
+            long lastOnline = record.getLong();
+            getSnapshotString(record); // server
+            String proxy = getSnapshotString(record);
+            getSnapshotString(record); // IP
+            if (plugin.getProxy().getPlayer(uuid) != null)
+                continue;
+
+            // A proxy or a last online time of 0 means the player was online when the snapshot was written.
+            if (lastOnline == NOT_CACHED || lastOnline <= 0 || proxy != null)
+                continue;
+
+            if (lastOnlineCache.asMap().putIfAbsent(uuid, new Provisional(lastOnline, expiresAt)) == null)
+                restored++;
+        }
+        return restored;
+    }
+
+    private static Object confirmed(Cache<UUID, Object> cache, UUID uuid) {
+        Object value = cache.getIfPresent(uuid);
+        return value instanceof Provisional ? null : value;
+    }
+
+    private static int snapshotLength(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    private static void putSnapshotString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length).put(value);
+        }
+    }
+
+    private static String getSnapshotString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A value that is only trusted until a deadline: a player Redis knew nothing about (the value is null), or data
+     * restored from a snapshot.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static final class Provisional {
+        private final Object value;
+        private final long expiresAt;
+
+        static Provisional absent() {
+            return new Provisional(null, System.currentTimeMillis() + ABSENT_TTL);
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+
     @Getter
     @RequiredArgsConstructor
     static class DataManagerMessage<T> {
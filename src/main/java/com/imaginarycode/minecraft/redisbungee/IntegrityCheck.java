@@ -0,0 +1,277 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.imaginarycode.minecraft.redisbungee.util.LuaManager;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
+import lombok.RequiredArgsConstructor;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Cleans up after lagged proxies, and makes sure the players Redis has on this proxy are the ones actually on it.
+ * <p>
+ * The size and digest of this proxy's {@code usersOnline} set are compared against the local players first, and the
+ * set is only walked when they differ. It is then read with SSCAN a page at a time, and the players on a page that
+ * aren't here are looked up on all other proxies with a single script call.
+ * <p>
+ * Only the leader (see {@link LeaderElection}) looks for lagged proxies. They are cleaned up by
+ * {@code clean_up_proxy.lua}, a batch of players per call. Whoever gets there first claims the proxy with a token from
+ * {@link #CLEANUP_FENCE}, and calls made with any other token are turned away until the claim expires, so a proxy that
+ * stalls halfway can't interfere with the one that took over from it.
+ * <p>
+ * Proxies also hold a lease, {@code proxy:<id>:lease}, which their heartbeat keeps renewing. When Redis sends
+ * keyspace notifications for expired keys, a proxy whose lease runs out is cleaned up right away instead of once its
+ * heartbeat is 30 seconds old. Only lease keys are subscribed to, with {@link #LEASE_PATTERN}.
+ */
+@RequiredArgsConstructor
+class IntegrityCheck implements Runnable {
+    private static final int SCAN_PAGE_SIZE = 500;
+    private static final long RECHECK_DELAY_MS = 1000;
+    private static final String CLEANUP_FENCE = "cleanup-fence";
+    private static final String KEYSPACE_PREFIX = "__keyspace@0__:";
+    static final String LEASE_PATTERN = KEYSPACE_PREFIX + "proxy:*:lease";
+    private static final long CLEANUP_CLAIM_MS = 30000;
+    private static final int CLEANUP_BATCH_SIZE = 500;
+    private static final byte[] NX = SafeEncoder.encode("NX");
+    private static final byte[] PX = SafeEncoder.encode("PX");
+    private static final int MIN_SHUTDOWN_TIMEOUT_MS = 1000;
+    private final RedisBungee plugin;
+    private final LuaManager.Script findOnProxiesScript;
+    private final LuaManager.Script rebuildOnlineDigestScript;
+    private final LuaManager.Script cleanUpProxyScript;
+
+    @Override
+    public void run() {
+        try (Jedis jedis = plugin.getPool().getResource()) {
+            cleanUpLaggedProxies(jedis);
+
+            if (digestMatches(jedis))
+                return;
+            // Players logging in are in Redis a moment before they're in the player list.
+            Thread.sleep(RECHECK_DELAY_MS);
+            if (!digestMatches(jedis)) {
+                reconcile(jedis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            plugin.getLogger().log(Level.SEVERE, "Unable to fix up stored player data", e);
+        }
+    }
+
+    /**
+     * Handles a keyspace notification received through {@link #LEASE_PATTERN}.
+     */
+    void onLeaseEvent(String channel, String event) {
+        if (!event.equals("expired") || !channel.startsWith(KEYSPACE_PREFIX))
+            return;
+
+        String proxyId = RedisKeys.proxyIdOfLease(channel.substring(KEYSPACE_PREFIX.length()));
+        if (proxyId == null || proxyId.equals(RedisBungee.getConfiguration().getId()))
+            return;
+
+        try (Jedis jedis = plugin.getPool().getResource()) {
+            cleanUpProxy(jedis, proxyId, true, Long.MAX_VALUE, "crashed");
+        } catch (Throwable e) {
+            plugin.getLogger().log(Level.SEVERE, "Unable to clean up after crashed proxy " + proxyId, e);
+        }
+    }
+
+    private void cleanUpLaggedProxies(Jedis jedis) {
+        if (!plugin.getLeaderElection().isLeader())
+            return;
+
+        for (String s : plugin.getLaggedServerIds()) {
+            cleanUpProxy(jedis, s, false, Long.MAX_VALUE, "lagged");
+        }
+    }
+
+    /**
+     * Removes this proxy's players from Redis when it shuts down. If that isn't done by {@code deadline}, or Redis
+     * fails along the way, the rest is handed to the other proxies by letting the lease expire right away.
+     *
+     * @return false if the rest was handed off
+     */
+    boolean cleanUpOnShutdown(Jedis jedis, long deadline) {
+        String proxyId = RedisBungee.getConfiguration().getId();
+        boolean done = false;
+        try {
+            timeOutAt(jedis, deadline);
+            // Without a lease, the script no longer thinks we're alive.
+            jedis.del(RedisKeys.lease(proxyId));
+            done = cleanUpProxy(jedis, proxyId, true, deadline, "shutting down");
+            return done;
+        } finally {
+            if (!done) {
+                handOff(proxyId);
+            }
+        }
+    }
+
+    private void handOff(String proxyId) {
+        // The connection we were using may have timed out halfway through a reply.
+        try (Jedis jedis = plugin.getPool().getResource()) {
+            timeOutAt(jedis, 0);
+            jedis.del(RedisKeys.cleanupClaim(proxyId));
+            jedis.set(RedisKeys.lease(proxyId), SafeEncoder.encode(proxyId), NX, PX, 1);
+        } catch (JedisException e) {
+            plugin.getLogger().log(Level.WARNING, "Unable to hand the clean up of this proxy to the other proxies, they will take over once its heartbeat is 30 seconds old.", e);
+        }
+    }
+
+    /**
+     * Makes reads on a connection time out at {@code deadline}, or a second from now if that is later. Connections from
+     * the pool otherwise wait on Redis forever, so a hung server would block shutting down.
+     */
+    static void timeOutAt(Jedis jedis, long deadline) {
+        jedis.getClient().setSoTimeout((int) Math.max(deadline - System.currentTimeMillis(), MIN_SHUTDOWN_TIMEOUT_MS));
+        jedis.getClient().rollbackTimeout();
+    }
+
+    /**
+     * Cleans up after a proxy, until done or {@code deadline} has passed.
+     *
+     * @return whether the proxy was cleaned up completely
+     */
+    private boolean cleanUpProxy(Jedis jedis, String proxyId, boolean leaseExpired, long deadline, String reason) {
+        // Every proxy notices at about the same time, the claim makes sure only one of them does the work.
+        String token = String.valueOf(jedis.incr(CLEANUP_FENCE));
+        List<byte[]> keys = Arrays.asList(RedisKeys.cleanupClaim(proxyId), RedisKeys.usersOnline(proxyId), RedisKeys.lease(proxyId),
+                RedisKeys.usersOnlineDigest(proxyId), RedisKeys.allNames(proxyId));
+        int cleaned = 0;
+        long result;
+        do {
+            if (deadline != Long.MAX_VALUE) {
+                timeOutAt(jedis, deadline);
+            }
+            List<byte[]> args = encode(proxyId, token, String.valueOf(CLEANUP_CLAIM_MS), String.valueOf(CLEANUP_BATCH_SIZE),
+                    String.valueOf(plugin.getRedisClock().currentTimeSeconds()), String.valueOf(System.currentTimeMillis()), leaseExpired ? "1" : "0");
+            result = (Long) cleanUpProxyScript.evalBinary(jedis, keys, args);
+            cleaned += Math.max(result, 0);
+        } while (result > 0 && System.currentTimeMillis() < deadline);
+
+        if (result == 0) {
+            RedisUtil.clearNameIndexes(jedis, proxyId);
+        }
+        if (cleaned > 0) {
+            plugin.getLogger().info("Cleaned up " + cleaned + " players of proxy " + proxyId + " (" + reason + ").");
+        }
+        return result == 0;
+    }
+
+    private boolean digestMatches(Jedis jedis) {
+        String proxyId = RedisBungee.getConfiguration().getId();
+        Pipeline pipeline = jedis.pipelined();
+        Response<Long> count = pipeline.scard(RedisKeys.usersOnline(proxyId));
+        Response<byte[]> digest = pipeline.get(RedisKeys.usersOnlineDigest(proxyId));
+        pipeline.sync();
+
+        Collection<ProxiedPlayer> players = plugin.getProxy().getPlayers();
+        long localDigest = 0;
+        for (ProxiedPlayer player : players) {
+            localDigest += RedisUtil.digest(player.getUniqueId());
+        }
+        long storedDigest = digest.get() == null ? 0 : Long.parseLong(SafeEncoder.encode(digest.get()));
+        return count.get() == players.size() && storedDigest == localDigest;
+    }
+
+    private void reconcile(Jedis jedis) {
+        String proxyId = RedisBungee.getConfiguration().getId();
+        byte[] key = RedisKeys.usersOnline(proxyId);
+        boolean online = plugin.getProxy().getConfig().isOnlineMode();
+
+        Map<String, ProxiedPlayer> absentInRedis = new HashMap<>();
+        for (ProxiedPlayer player : plugin.getProxy().getPlayers()) {
+            absentInRedis.put(player.getUniqueId().toString(), player);
+        }
+        Set<String> local = new HashSet<>(absentInRedis.keySet());
+        List<byte[]> otherProxies = new ArrayList<>();
+        for (String id : plugin.getServerIds()) {
+            if (!id.equals(proxyId))
+                otherProxies.add(RedisKeys.usersOnline(id));
+        }
+
+        // SSCAN may return a member more than once.
+        Set<String> handled = new HashSet<>();
+        ScanParams params = new ScanParams().count(SCAN_PAGE_SIZE);
+        byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+        do {
+            ScanResult<byte[]> page = jedis.sscan(key, cursor, params);
+            cursor = page.getCursorAsBytes();
+
+            List<String> absentLocally = new ArrayList<>();
+            List<byte[]> rawAbsentLocally = new ArrayList<>();
+            for (byte[] raw : page.getResult()) {
+                String member = SafeEncoder.encode(raw);
+                absentInRedis.remove(member);
+                if (!local.contains(member) && handled.add(member)) {
+                    absentLocally.add(member);
+                    rawAbsentLocally.add(raw);
+                }
+            }
+            if (absentLocally.isEmpty())
+                continue;
+
+            Set<String> elsewhere = new HashSet<>();
+            if (!otherProxies.isEmpty()) {
+                @SuppressWarnings("unchecked")
+                List<byte[]> found = (List<byte[]>) findOnProxiesScript.evalBinary(jedis, otherProxies, rawAbsentLocally);
+                for (byte[] member : found) {
+                    elsewhere.add(SafeEncoder.encode(member));
+                }
+            }
+            for (String member : absentLocally) {
+                if (elsewhere.contains(member)) {
+                    // Just clean up the set.
+                    RedisUtil.removeOnline(jedis, proxyId, member);
+                    plugin.getLogger().warning("Player found in set that was not found locally, but is on another proxy: " + member);
+                } else {
+                    RedisUtil.cleanUpPlayer(member, jedis, online);
+                    plugin.getLogger().warning("Player found in set that was not found locally and globally: " + member);
+                }
+            }
+        } while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+
+        List<RedisUtil.OnlineChange> changes = new ArrayList<>();
+        Pipeline pipeline = jedis.pipelined();
+        for (Map.Entry<String, ProxiedPlayer> entry : absentInRedis.entrySet()) {
+            // Player not online according to Redis but not BungeeCord.
+            plugin.getLogger().warning("Player " + entry.getKey() + " is on the proxy but not in Redis.");
+            if (plugin.getProxy().getPlayer(entry.getValue().getUniqueId()) == null)
+                continue; // We'll deal with it later.
+
+            changes.add(RedisUtil.createPlayer(entry.getValue(), pipeline, true));
+        }
+        pipeline.sync();
+        for (RedisUtil.OnlineChange change : changes) {
+            change.confirm(jedis);
+        }
+
+        // The set is right now, but the digest may still be off, e.g. if it was left behind by a crash.
+        rebuildOnlineDigestScript.evalBinary(jedis, Arrays.asList(key, RedisKeys.usersOnlineDigest(proxyId)), Collections.<byte[]>emptyList());
+    }
+
+    private static List<byte[]> encode(String... values) {
+        List<byte[]> encoded = new ArrayList<>(values.length);
+        for (String value : values) {
+            encoded.add(SafeEncoder.encode(value));
+        }
+        return encoded;
+    }
+}
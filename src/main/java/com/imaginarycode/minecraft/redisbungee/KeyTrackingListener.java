@@ -0,0 +1,146 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.imaginarycode.minecraft.redisbungee.util.UUIDUtil;
+import lombok.RequiredArgsConstructor;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.SafeEncoder;
+
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps the {@link DataManager} caches coherent using Redis 6 server-assisted client-side caching, in redirect mode.
+ * <p>
+ * One connection subscribes to {@code __redis__:invalidate} and a second one turns on broadcast tracking for the
+ * {@code player:} prefix, redirecting its invalidations to the first. Redis then reports every write to a player hash,
+ * including the ones made by other tools that never show up on {@code redisbungee-data}. Whenever the subscription is
+ * (re)established or lost the caches are flushed, as invalidations may have been missed in between.
+ * <p>
+ * Redis silently stops sending invalidations when the tracking connection goes away, so both connections are pinged
+ * whenever nothing has arrived for {@link #HEALTH_CHECK_MS}. If either doesn't answer, both are set up again.
+ */
+@RequiredArgsConstructor
+class KeyTrackingListener implements Runnable {
+    private static final String PLAYER_PREFIX = "player:";
+    private static final int HEALTH_CHECK_MS = (int) TimeUnit.SECONDS.toMillis(15);
+    private final RedisBungee plugin;
+    private final String host;
+    private final int port;
+    private final String password;
+    private volatile boolean poisoned;
+    private volatile RawClient subscriber;
+
+    @Override
+    public void run() {
+        while (!poisoned) {
+            RawClient tracker = null;
+            try {
+                subscriber = new RawClient(host, port, password);
+                subscriber.setSoTimeout(HEALTH_CHECK_MS);
+                long id = (Long) subscriber.command(Protocol.Command.CLIENT, "ID");
+
+                tracker = new RawClient(host, port, password);
+                tracker.command(Protocol.Command.CLIENT, "TRACKING", "on", "REDIRECT", String.valueOf(id), "BCAST", "PREFIX", PLAYER_PREFIX);
+
+                subscriber.command(Protocol.Command.SUBSCRIBE, "__redis__:invalidate");
+                plugin.getDataManager().invalidateAll();
+
+                boolean pinged = false;
+                while (!poisoned) {
+                    Object reply;
+                    try {
+                        reply = subscriber.getOne();
+                    } catch (JedisConnectionException e) {
+                        if (pinged || !(e.getCause() instanceof SocketTimeoutException))
+                            throw e;
+                        // The subscriber's answer arrives as a message, the tracker answers right away.
+                        subscriber.send(Protocol.Command.PING);
+                        tracker.command(Protocol.Command.PING);
+                        pinged = true;
+                        continue;
+                    }
+                    pinged = false;
+                    handle((List<?>) reply);
+                }
+            } catch (Exception e) {
+                if (!poisoned) {
+                    plugin.getLogger().log(Level.WARNING, "Lost the Redis invalidation connection, attempting to recover.", e);
+                }
+            } finally {
+                plugin.getDataManager().invalidateAll();
+                close(subscriber);
+                close(tracker);
+            }
+
+            if (!poisoned) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void handle(List<?> reply) {
+        if (reply.size() < 3 || !"message".equals(SafeEncoder.encode((byte[]) reply.get(0))))
+            return;
+
+        Object keys = reply.get(2);
+        if (!(keys instanceof List)) {
+            // A null payload means the whole database was flushed.
+            plugin.getDataManager().invalidateAll();
+            return;
+        }
+
+        for (Object key : (List<?>) keys) {
+            String name = SafeEncoder.encode((byte[]) key);
+            if (!name.startsWith(PLAYER_PREFIX))
+                continue;
+            try {
+                plugin.getDataManager().invalidate(UUIDUtil.fromString(name.substring(PLAYER_PREFIX.length())));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    void poison() {
+        poisoned = true;
+        close(subscriber);
+    }
+
+    private static void close(RawClient client) {
+        if (client == null)
+            return;
+        try {
+            client.disconnect();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Jedis 2.x has no helpers for CLIENT ID/TRACKING, and its pub/sub handler can't read invalidation messages, whose
+     * payload is an array of keys instead of a string. This sends raw commands and hands back the decoded reply.
+     */
+    private static final class RawClient extends Client {
+        RawClient(String host, int port, String password) {
+            super(host, port);
+            if (password != null)
+                setPassword(password);
+        }
+
+        Object command(Protocol.Command command, String... args) {
+            sendCommand(command, args);
+            return getOne();
+        }
+
+        void send(Protocol.Command command, String... args) {
+            sendCommand(command, args);
+            flush();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.imaginarycode.minecraft.redisbungee.events.LeaderChangedEvent;
+import lombok.RequiredArgsConstructor;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Elects one proxy to run the chores that only need doing once for the whole network, like cleaning up after lagged
+ * proxies.
+ * <p>
+ * The leader holds the {@code leader} hash for {@link #LEASE_MS} and renews it with every heartbeat, see
+ * {@code heartbeat.lua}. Once it stops, the next proxy to send a heartbeat takes over. Every new leadership gets a
+ * higher fencing token from {@code leader-fence}, so work done by a leader that was replaced without noticing can be
+ * told apart.
+ */
+@RequiredArgsConstructor
+class LeaderElection {
+    static final String LEADER_KEY = "leader";
+    static final String FENCE_KEY = "leader-fence";
+    static final long LEASE_MS = 10000;
+    // Give up a heartbeat before Redis could hand the leadership to someone else.
+    private static final long SAFETY_MARGIN_MS = 3000;
+    private final RedisBungee plugin;
+    private volatile String leader;
+    private volatile long fencingToken = -1;
+    private volatile long renewedAt;
+
+    /**
+     * Records the leader reported by a heartbeat.
+     *
+     * @param sentAt when the heartbeat was sent, the leadership of this proxy is counted from then
+     */
+    void update(String newLeader, long token, long sentAt) {
+        if (newLeader.equals(RedisBungee.getConfiguration().getId())) {
+            renewedAt = sentAt;
+        }
+        if (token == fencingToken)
+            return;
+
+        leader = newLeader;
+        fencingToken = token;
+        final LeaderChangedEvent event = new LeaderChangedEvent(leader, token);
+        plugin.getProxy().getScheduler().runAsync(plugin, new Runnable() {
+            @Override
+            public void run() {
+                plugin.getProxy().getPluginManager().callEvent(event);
+            }
+        });
+    }
+
+    /**
+     * Steps down if this proxy is the leader, so another proxy can take over right away.
+     */
+    void release(Jedis jedis) {
+        if (isLeader()) {
+            jedis.del(LEADER_KEY);
+        }
+    }
+
+    boolean isLeader() {
+        return RedisBungee.getConfiguration().getId().equals(leader)
+                && System.currentTimeMillis() - renewedAt < LEASE_MS - SAFETY_MARGIN_MS;
+    }
+
+    String getLeader() {
+        return leader;
+    }
+
+    long getFencingToken() {
+        return fencingToken;
+    }
+}
@@ -1,25 +1,29 @@
 package com.imaginarycode.minecraft.redisbungee;
 
+import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.api.plugin.Listener;
-import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.event.EventHandler;
 import protocolsupport.api.events.PocketServerInfoEvent;
 
+@RequiredArgsConstructor
 public class PSPEPingHandler implements Listener {
+    private final RedisBungee plugin;
 
     @EventHandler
     public void handle(PocketServerInfoEvent event) {
-        int cnt = RedisBungee.getApi().getPlayerCount();
-        event.setOnline(cnt);
+        // Pocket Edition pings carry no host name, so a single group can be configured for all of them.
+        String group = RedisBungee.getConfiguration().getPocketServerGroup();
+        int cnt = group.isEmpty() ? -1 : plugin.getServerGroupCounts().getGroupCount(group);
+        event.setOnline(cnt >= 0 ? cnt : RedisBungee.getApi().getPlayerCount());
     }
 
-    static void bind(Plugin plugin) {
+    static void bind(RedisBungee plugin) {
         try {
             Class<?> evt = PSPEPingHandler.class.getClassLoader().loadClass("protocolsupport.api.events.PocketServerInfoEvent");
             if (evt == null) {
                 return;
             }
-            plugin.getProxy().getPluginManager().registerListener(plugin, new PSPEPingHandler());
+            plugin.getProxy().getPluginManager().registerListener(plugin, new PSPEPingHandler(plugin));
         } catch (ClassNotFoundException ignored) {
         }
     }
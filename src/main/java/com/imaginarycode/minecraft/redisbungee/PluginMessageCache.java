@@ -0,0 +1,55 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps serialized answers to backend plugin message queries for a short while, so backends polling for the same
+ * thing share a single computation. Concurrent requests for an answer that isn't cached yet wait for the first one
+ * instead of computing it again.
+ */
+class PluginMessageCache {
+    private final Cache<String, byte[]> responses;
+
+    /**
+     * @param ttlMs how long answers are kept, or 0 to not cache them at all
+     */
+    PluginMessageCache(long ttlMs) {
+        this.responses = ttlMs <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .<String, byte[]>build();
+    }
+
+    /**
+     * Returns the cached answer for the key, computing it if needed. Exceptions thrown by the computation are rethrown
+     * as is if unchecked, and are not cached.
+     */
+    byte[] get(String key, Callable<byte[]> compute) {
+        try {
+            return responses == null ? compute.call() : responses.get(key, compute);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    boolean isEnabled() {
+        return responses != null;
+    }
+
+    CacheStats getStats() {
+        return responses == null ? new CacheStats(0, 0, 0, 0, 0, 0) : responses.stats();
+    }
+}
@@ -0,0 +1,237 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import lombok.RequiredArgsConstructor;
+import net.md_5.bungee.api.connection.Server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * The binary version of the {@code RedisBungee} plugin message protocol, used when the subchannel is {@code V2}.
+ * <p>
+ * A request is {@code UTF "V2", int requestId, UTF query} followed by the query's arguments. Players are sent as two
+ * longs (most significant bits first), optionally followed by a boolean and, if it is true, their name as UTF.
+ * <p>
+ * The response is encoded as {@code byte status} (see {@link #OK}, {@link #UNKNOWN_QUERY} and
+ * {@link #TOO_MANY_SUBSCRIPTIONS}) followed by the query's result, and is sent in one or more chunks of
+ * {@code UTF "V2", int requestId, int sequence, boolean last} followed by part of the encoded response. The backend
+ * concatenates the chunks in sequence order once the last one arrived. Several requests may be outstanding at once;
+ * the request ID tells their responses apart.
+ * <p>
+ * Queries:
+ * <ul>
+ * <li>{@code PlayerList}, {@code UTF server} ({@code ALL} for the whole network), {@code boolean names}:
+ * {@code int count} and that many players.</li>
+ * <li>{@code PlayerCount}, {@code UTF server} ({@code ALL} for the whole network): {@code int count}.</li>
+ * <li>{@code ServerPlayers}, {@code boolean players}, {@code boolean names}: {@code int servers}, then for each
+ * server {@code UTF name, int count} and, if requested, that many players.</li>
+ * <li>{@code LastOnline}, {@code UUID player}: {@code long lastOnline}, as in {@link RedisBungeeAPI#getLastOnline(UUID)}.</li>
+ * <li>{@code PlayerProxy}, {@code UUID player}: {@code boolean online} and, if true, {@code UTF proxy}.</li>
+ * <li>{@code Proxy}: {@code UTF proxy}, the ID of this proxy.</li>
+ * <li>{@code Subscribe}, {@code boolean roster}: nothing, or {@link #TOO_MANY_SUBSCRIPTIONS}. Updates are then pushed
+ * under the request ID, see {@link BackendSubscriptions}. Subscriptions expire unless the same request is sent again
+ * at least every two minutes.</li>
+ * <li>{@code Unsubscribe}, {@code int requestId}: nothing. Stops the updates for an earlier {@code Subscribe}.</li>
+ * </ul>
+ */
+@RequiredArgsConstructor
+class PluginMessageV2 {
+    static final String SUBCHANNEL = "V2";
+    static final byte OK = 0;
+    static final byte UNKNOWN_QUERY = 1;
+    static final byte TOO_MANY_SUBSCRIPTIONS = 2;
+    // Backends reject plugin messages over 32767 bytes, so leave room for the chunk header.
+    private static final int CHUNK_PAYLOAD_SIZE = 32000;
+    private final RedisBungee plugin;
+
+    /**
+     * Answers a request. The subchannel has already been read from {@code in}.
+     */
+    void handle(ByteArrayDataInput in, Server sender) {
+        int requestId = in.readInt();
+        String query = in.readUTF();
+        PluginMessageCache cache = plugin.getPluginMessageCache();
+        byte[] response;
+
+        switch (query) {
+            case "PlayerList": {
+                final String server = in.readUTF();
+                final boolean names = in.readBoolean();
+                response = cache.get("V2\0PlayerList\0" + server + "\0" + names, new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return playerList(server, names);
+                    }
+                });
+                break;
+            }
+            case "PlayerCount": {
+                final String server = in.readUTF();
+                response = cache.get("V2\0PlayerCount\0" + server, new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return playerCount(server);
+                    }
+                });
+                break;
+            }
+            case "ServerPlayers": {
+                final boolean includePlayers = in.readBoolean();
+                final boolean names = in.readBoolean();
+                response = cache.get("V2\0ServerPlayers\0" + includePlayers + "\0" + names, new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return serverPlayers(includePlayers, names);
+                    }
+                });
+                break;
+            }
+            case "LastOnline": {
+                UUID player = new UUID(in.readLong(), in.readLong());
+                ByteArrayDataOutput out = ByteStreams.newDataOutput();
+                out.writeByte(OK);
+                out.writeLong(RedisBungee.getApi().getLastOnline(player));
+                response = out.toByteArray();
+                break;
+            }
+            case "PlayerProxy": {
+                UUID player = new UUID(in.readLong(), in.readLong());
+                String proxy = RedisBungee.getApi().getProxy(player);
+                ByteArrayDataOutput out = ByteStreams.newDataOutput();
+                out.writeByte(OK);
+                out.writeBoolean(proxy != null);
+                if (proxy != null) {
+                    out.writeUTF(proxy);
+                }
+                response = out.toByteArray();
+                break;
+            }
+            case "Proxy": {
+                ByteArrayDataOutput out = ByteStreams.newDataOutput();
+                out.writeByte(OK);
+                out.writeUTF(RedisBungee.getConfiguration().getId());
+                response = out.toByteArray();
+                break;
+            }
+            case "Subscribe": {
+                boolean roster = in.readBoolean();
+                boolean accepted = plugin.getBackendSubscriptions().subscribe(sender.getInfo(), requestId, roster);
+                response = new byte[]{accepted ? OK : TOO_MANY_SUBSCRIPTIONS};
+                break;
+            }
+            case "Unsubscribe": {
+                plugin.getBackendSubscriptions().unsubscribe(sender.getInfo(), in.readInt());
+                response = new byte[]{OK};
+                break;
+            }
+            default:
+                response = new byte[]{UNKNOWN_QUERY};
+                break;
+        }
+
+        send(sender, requestId, response);
+    }
+
+    private byte[] playerList(String server, boolean names) {
+        Set<UUID> players = Collections.emptySet();
+        if (server.equals("ALL")) {
+            players = plugin.getPlayers();
+        } else {
+            try {
+                players = RedisBungee.getApi().getPlayersOnServer(server);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeByte(OK);
+        out.writeInt(players.size());
+        writePlayers(players, names ? plugin.getUuidTranslator().getNamesFromUuids(players, false) : null, out);
+        return out.toByteArray();
+    }
+
+    private byte[] playerCount(String server) {
+        int count;
+        if (server.equals("ALL")) {
+            count = plugin.getCount();
+        } else {
+            try {
+                count = RedisBungee.getApi().getPlayersOnServer(server).size();
+            } catch (IllegalArgumentException e) {
+                count = 0;
+            }
+        }
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeByte(OK);
+        out.writeInt(count);
+        return out.toByteArray();
+    }
+
+    private byte[] serverPlayers(boolean includePlayers, boolean names) {
+        Multimap<String, UUID> serverToPlayers = RedisBungee.getApi().getServerToPlayers();
+        Map<UUID, String> resolved = includePlayers && names
+                ? plugin.getUuidTranslator().getNamesFromUuids(serverToPlayers.values(), false) : null;
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeByte(OK);
+        out.writeInt(serverToPlayers.keySet().size());
+        for (Map.Entry<String, Collection<UUID>> entry : serverToPlayers.asMap().entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            if (includePlayers) {
+                writePlayers(entry.getValue(), resolved, out);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writePlayers(Collection<UUID> players, Map<UUID, String> names, ByteArrayDataOutput out) {
+        for (UUID player : players) {
+            out.writeLong(player.getMostSignificantBits());
+            out.writeLong(player.getLeastSignificantBits());
+            if (names != null) {
+                String name = names.get(player);
+                out.writeBoolean(name != null);
+                if (name != null) {
+                    out.writeUTF(name);
+                }
+            }
+        }
+    }
+
+    private static void send(Server sender, int requestId, byte[] response) {
+        for (byte[] chunk : chunk(SUBCHANNEL, requestId, response)) {
+            sender.sendData("RedisBungee", chunk);
+        }
+    }
+
+    /**
+     * Splits an encoded response into plugin messages, each starting with the subchannel, the ID, a sequence number
+     * and whether it is the last chunk.
+     */
+    static List<byte[]> chunk(String subchannel, int id, byte[] response) {
+        List<byte[]> chunks = new ArrayList<>(response.length / CHUNK_PAYLOAD_SIZE + 1);
+        int sequence = 0;
+        int offset = 0;
+        do {
+            int length = Math.min(CHUNK_PAYLOAD_SIZE, response.length - offset);
+            ByteArrayDataOutput chunk = ByteStreams.newDataOutput(length + 16);
+            chunk.writeUTF(subchannel);
+            chunk.writeInt(id);
+            chunk.writeInt(sequence++);
+            chunk.writeBoolean(offset + length == response.length);
+            chunk.write(response, offset, length);
+            chunks.add(chunk.toByteArray());
+            offset += length;
+        } while (offset < response.length);
+        return chunks;
+    }
+}
@@ -5,14 +5,21 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gson.Gson;
 import com.imaginarycode.minecraft.redisbungee.events.PubSubMessageEvent;
-import com.imaginarycode.minecraft.redisbungee.util.IOUtil;
 import com.imaginarycode.minecraft.redisbungee.util.LuaManager;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
+import com.imaginarycode.minecraft.redisbungee.util.UUIDUtil;
+import com.imaginarycode.minecraft.redisbungee.util.uuid.MojangRateLimiter;
 import com.imaginarycode.minecraft.redisbungee.util.uuid.NameFetcher;
+import com.imaginarycode.minecraft.redisbungee.util.uuid.UUIDCacheCleaner;
 import com.imaginarycode.minecraft.redisbungee.util.uuid.UUIDFetcher;
+import com.imaginarycode.minecraft.redisbungee.util.uuid.UUIDResolver;
 import com.imaginarycode.minecraft.redisbungee.util.uuid.UUIDTranslator;
 import com.squareup.okhttp.Dispatcher;
 import com.squareup.okhttp.OkHttpClient;
@@ -20,8 +27,8 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
 import lombok.val;
-import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.config.Configuration;
@@ -32,7 +39,11 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -40,13 +51,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -71,8 +86,15 @@ public final class RedisBungee extends Plugin {
     @Getter
     private static Gson gson = new Gson();
     private static RedisBungeeAPI api;
+    private static AsyncRedisBungeeAPI asyncApi;
     @Getter(AccessLevel.PACKAGE)
     private static PubSubListener psl = null;
+    private KeyTrackingListener keyTrackingListener;
+    private String redisServer;
+    private int redisPort;
+    private String redisPassword;
+    private boolean canUseTracking;
+    private boolean canUseLexRanges;
     @Getter
     private JedisPool pool;
     @Getter
@@ -83,15 +105,45 @@ public final class RedisBungee extends Plugin {
     private DataManager dataManager;
     @Getter
     private static OkHttpClient httpClient;
+    @Getter
+    private ListeningExecutorService asyncExecutor;
+    @Getter
+    private MojangRateLimiter mojangRateLimiter;
+    @Getter(AccessLevel.PACKAGE)
+    private PluginMessageCache pluginMessageCache;
+    @Getter(AccessLevel.PACKAGE)
+    private BackendSubscriptions backendSubscriptions;
+    @Getter(AccessLevel.PACKAGE)
+    private ServerGroupCounts serverGroupCounts;
     private volatile List<String> serverIds;
+    private volatile List<String> laggedServerIds = Collections.emptyList();
+    @Getter(AccessLevel.PACKAGE)
+    private final RedisClock redisClock = new RedisClock();
     private final AtomicInteger nagAboutServers = new AtomicInteger();
     private final AtomicInteger globalPlayerCount = new AtomicInteger();
+    private IntegrityCheck integrityChecker;
+    @Getter(AccessLevel.PACKAGE)
+    private LeaderElection leaderElection;
     private Future<?> integrityCheck;
     private Future<?> heartbeatTask;
+    private Future<?> uuidCacheCleanerTask;
+    private WarmCacheSnapshot warmCacheSnapshot;
+    private Future<?> warmCacheTask;
+    @Getter(AccessLevel.PACKAGE)
+    private LuaManager luaManager;
     private LuaManager.Script serverToPlayersScript;
-    private LuaManager.Script getPlayerCountScript;
+    private LuaManager.Script heartbeatScript;
+    private LuaManager.Script serverPlayersPageScript;
+    private LuaManager.Script findOnProxiesScript;
+    private LuaManager.Script rebuildOnlineDigestScript;
+    private LuaManager.Script cleanUpProxyScript;
+    private LuaManager.Script cleanUuidCacheScript;
 
     private static final Object SERVER_TO_PLAYERS_KEY = new Object();
+    private static final long NAME_PAGE_SNAPSHOT_MS = 5000;
+    // A few missed heartbeats, after which other proxies may consider this one crashed.
+    private static final long LEASE_MS = 10000;
+    private static final long SHUTDOWN_CLEANUP_BUDGET_MS = 5000;
     private final Cache<Object, Multimap<String, UUID>> serverToPlayersCache = CacheBuilder.newBuilder()
             .expireAfterWrite(5, TimeUnit.SECONDS)
             .build();
@@ -105,6 +157,16 @@ public final class RedisBungee extends Plugin {
         return api;
     }
 
+    /**
+     * Fetch the {@link AsyncRedisBungeeAPI} object created on plugin start.
+     *
+     * @return the {@link AsyncRedisBungeeAPI} object
+     * @since 0.4
+     */
+    public static AsyncRedisBungeeAPI getAsyncApi() {
+        return asyncApi;
+    }
+
     static PubSubListener getPubSubListener() {
         return psl;
     }
@@ -113,43 +175,52 @@ public final class RedisBungee extends Plugin {
         return serverIds;
     }
 
+    /**
+     * The proxies whose heartbeat was more than 30 seconds old at the last heartbeat of this proxy.
+     */
+    final List<String> getLaggedServerIds() {
+        return laggedServerIds;
+    }
+
     private List<String> getCurrentServerIds(boolean nag, boolean lagged) {
         try (Jedis jedis = pool.getResource()) {
-            long time = getRTime(jedis);
-            int nagTime = 0;
-            if (nag) {
-                nagTime = nagAboutServers.decrementAndGet();
-                if (nagTime <= 0) {
-                    nagAboutServers.set(10);
-                }
-            }
-            ImmutableList.Builder<String> servers = ImmutableList.builder();
-            Map<String, String> heartbeats = jedis.hgetAll("heartbeats");
-            for (Map.Entry<String, String> entry : heartbeats.entrySet()) {
-                try {
-                    long stamp = Long.parseLong(entry.getValue());
-                    if (lagged ? time >= stamp + 30 : time <= stamp + 30)
-                        servers.add(entry.getKey());
-                    else if (nag && nagTime <= 0) {
-                        getLogger().severe(entry.getKey() + " is " + (time - stamp) + " seconds behind! (Time not synchronized or server down?)");
-                    }
-                } catch (NumberFormatException ignored) {
-                }
-            }
-            return servers.build();
+            return filterServerIds(jedis.hgetAll("heartbeats"), redisClock.currentTimeSeconds(), nag, lagged);
         } catch (JedisConnectionException e) {
             getLogger().log(Level.SEVERE, "Unable to fetch server IDs", e);
             return Collections.singletonList(configuration.getId());
         }
     }
 
+    private List<String> filterServerIds(Map<String, String> heartbeats, long time, boolean nag, boolean lagged) {
+        int nagTime = 0;
+        if (nag) {
+            nagTime = nagAboutServers.decrementAndGet();
+            if (nagTime <= 0) {
+                nagAboutServers.set(10);
+            }
+        }
+        ImmutableList.Builder<String> servers = ImmutableList.builder();
+        for (Map.Entry<String, String> entry : heartbeats.entrySet()) {
+            try {
+                long stamp = Long.parseLong(entry.getValue());
+                if (lagged ? time >= stamp + 30 : time <= stamp + 30)
+                    servers.add(entry.getKey());
+                else if (nag && nagTime <= 0) {
+                    getLogger().severe(entry.getKey() + " is " + (time - stamp) + " seconds behind! (Time not synchronized or server down?)");
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return servers.build();
+    }
+
     public Set<UUID> getPlayersOnProxy(String server) {
         checkArgument(getServerIds().contains(server), server + " is not a valid proxy ID");
         try (Jedis jedis = pool.getResource()) {
-            Set<String> users = jedis.smembers("proxy:" + server + ":usersOnline");
+            Set<byte[]> users = jedis.smembers(RedisKeys.usersOnline(server));
             ImmutableSet.Builder<UUID> builder = ImmutableSet.builder();
-            for (String user : users) {
-                builder.add(UUID.fromString(user));
+            for (byte[] user : users) {
+                builder.add(UUIDUtil.fromAscii(user));
             }
             return builder.build();
         }
@@ -160,21 +231,11 @@ public final class RedisBungee extends Plugin {
             return serverToPlayersCache.get(SERVER_TO_PLAYERS_KEY, new Callable<Multimap<String, UUID>>() {
                 @Override
                 public Multimap<String, UUID> call() throws Exception {
-                    Collection<String> data = (Collection<String>) serverToPlayersScript.eval(ImmutableList.<String>of(), getServerIds());
-
-                    ImmutableMultimap.Builder<String, UUID> builder = ImmutableMultimap.builder();
-                    String key = null;
-                    for (String s : data) {
-                        if (key == null) {
-                            key = s;
-                            continue;
-                        }
-
-                        builder.put(key, UUID.fromString(s));
-                        key = null;
+                    List<byte[]> proxies = new ArrayList<>();
+                    for (String id : getServerIds()) {
+                        proxies.add(SafeEncoder.encode(id));
                     }
-
-                    return builder.build();
+                    return unpackServersToPlayers((byte[]) serverToPlayersScript.evalBinary(ImmutableList.<byte[]>of(), proxies));
                 }
             });
         } catch (ExecutionException e) {
@@ -182,37 +243,49 @@ public final class RedisBungee extends Plugin {
         }
     }
 
-    final int getCount() {
-        return globalPlayerCount.get();
+    /**
+     * Reads the reply of {@code server_to_players.lua}. Server names are decoded once per server, and the UUIDs are
+     * parsed straight out of the reply.
+     */
+    private static Multimap<String, UUID> unpackServersToPlayers(byte[] packed) {
+        ImmutableMultimap.Builder<String, UUID> builder = ImmutableMultimap.builder();
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+        while (buffer.hasRemaining()) {
+            int nameLength = buffer.getShort() & 0xFFFF;
+            String server = new String(packed, buffer.position(), nameLength, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + nameLength);
+            int players = buffer.getInt();
+            for (int i = 0; i < players; i++) {
+                builder.put(server, UUIDUtil.fromAscii(packed, buffer.position(), UUIDUtil.DASHED_LENGTH));
+                buffer.position(buffer.position() + UUIDUtil.DASHED_LENGTH);
+            }
+        }
+        return builder.build();
     }
 
-    final int getCurrentCount() {
-        Long count = (Long) getPlayerCountScript.eval(ImmutableList.<String>of(), ImmutableList.<String>of());
-        return count.intValue();
+    final Multimap<String, UUID> getCachedServersToPlayers() {
+        return serverToPlayersCache.getIfPresent(SERVER_TO_PLAYERS_KEY);
     }
 
-    private Set<String> getLocalPlayersAsUuidStrings() {
-        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
-        for (ProxiedPlayer player : getProxy().getPlayers()) {
-            builder.add(player.getUniqueId().toString());
-        }
-        return builder.build();
+    final int getCount() {
+        return globalPlayerCount.get();
     }
 
     final Set<UUID> getPlayers() {
         ImmutableSet.Builder<UUID> setBuilder = ImmutableSet.builder();
         if (pool != null) {
             try (Jedis rsc = pool.getResource()) {
-                List<String> keys = new ArrayList<>();
-                for (String i : getServerIds()) {
-                    keys.add("proxy:" + i + ":usersOnline");
+                List<String> ids = getServerIds();
+                byte[][] keys = new byte[ids.size()][];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = RedisKeys.usersOnline(ids.get(i));
                 }
-                if (!keys.isEmpty()) {
-                    Set<String> users = rsc.sunion(keys.toArray(new String[keys.size()]));
+                if (keys.length > 0) {
+                    Set<byte[]> users = rsc.sunion(keys);
                     if (users != null && !users.isEmpty()) {
-                        for (String user : users) {
+                        for (byte[] user : users) {
                             try {
-                                setBuilder = setBuilder.add(UUID.fromString(user));
+                                setBuilder = setBuilder.add(UUIDUtil.fromAscii(user));
                             } catch (IllegalArgumentException ignored) {
                             }
                         }
@@ -227,6 +300,80 @@ public final class RedisBungee extends Plugin {
         return setBuilder.build();
     }
 
+    final List<String> getPlayerNamesByPrefix(String prefix, int limit) {
+        String lower = prefix.toLowerCase();
+        if (!canUseLexRanges) {
+            // Redis before 2.8.9 can't search the index. Going through the whole roster instead is far too slow for the
+            // I/O thread tab completion runs on, so only players on this proxy are suggested.
+            TreeSet<String> matches = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            for (ProxiedPlayer player : getProxy().getPlayers()) {
+                if (player.getName().toLowerCase().startsWith(lower))
+                    matches.add(player.getName());
+            }
+            return ImmutableList.copyOf(Iterables.limit(matches, limit));
+        }
+
+        byte[] min = SafeEncoder.encode("[" + lower);
+        byte[] max = Arrays.copyOf(min, min.length + 1);
+        max[min.length] = (byte) 0xFF;
+        max[0] = '(';
+
+        List<String> ids = getServerIds();
+        List<Response<Set<byte[]>>> responses = new ArrayList<>(ids.size());
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (String id : ids) {
+                responses.add(pipeline.zrangeByLex(RedisKeys.nameIndex(id), min, max, 0, limit));
+            }
+            pipeline.sync();
+        } catch (JedisConnectionException e) {
+            // Redis server has disappeared!
+            getLogger().log(Level.SEVERE, "Unable to get connection from pool - did your Redis server go away?", e);
+            throw new RuntimeException("Unable to search player names", e);
+        }
+
+        // Each proxy's index is sorted already, but they still need to be merged.
+        TreeSet<String> members = new TreeSet<>();
+        for (Response<Set<byte[]>> response : responses) {
+            for (byte[] member : response.get()) {
+                members.add(SafeEncoder.encode(member));
+            }
+        }
+        List<String> names = new ArrayList<>(Math.min(limit, members.size()));
+        for (String member : Iterables.limit(members, limit)) {
+            names.add(member.substring(member.indexOf(':') + 1));
+        }
+        return names;
+    }
+
+    /**
+     * Reads one page of the names of the players on a server, in alphabetical order.
+     *
+     * @param proxyId the proxy to list the players of, or null for the whole network
+     * @param start   the rank of the first name on the page, starting at 0
+     */
+    @SuppressWarnings("unchecked")
+    final NamePage getServerPlayerNames(String server, String proxyId, int start, int pageSize) {
+        List<String> keys = new ArrayList<>();
+        if (proxyId != null) {
+            keys.add(SafeEncoder.encode(RedisKeys.serverNameIndex(proxyId, server)));
+        } else {
+            keys.add("server-names:" + server);
+            for (String id : getServerIds()) {
+                keys.add(SafeEncoder.encode(RedisKeys.serverNameIndex(id, server)));
+            }
+        }
+
+        List<Object> result = (List<Object>) serverPlayersPageScript.eval(keys, ImmutableList.of(
+                String.valueOf(start), String.valueOf(start + pageSize - 1), String.valueOf(NAME_PAGE_SNAPSHOT_MS)));
+        List<String> names = new ArrayList<>(result.size() - 1);
+        for (Object member : result.subList(1, result.size())) {
+            String s = (String) member;
+            names.add(s.substring(s.indexOf(':') + 1));
+        }
+        return new NamePage(((Long) result.get(0)).intValue(), names);
+    }
+
     final void sendProxyCommand(@NonNull String proxyId, @NonNull String command) {
         checkArgument(getServerIds().contains(proxyId) || proxyId.equals("allservers"), "proxyId is invalid");
         sendChannelMessage("redisbungee-" + proxyId, command);
@@ -258,6 +405,7 @@ public final class RedisBungee extends Plugin {
         } catch (Exception e) {
             throw new RuntimeException("Can't replace BungeeCord thread pool with our own", e);
         }
+        asyncExecutor = MoreExecutors.listeningDecorator(service);
         try {
             loadConfig();
         } catch (IOException e) {
@@ -276,49 +424,116 @@ public final class RedisBungee extends Plugin {
                             getLogger().warning("Your version of Redis (" + version + ") is not at least version 2.6. RedisBungee requires a newer version of Redis.");
                             throw new RuntimeException("Unsupported Redis version detected");
                         } else {
-                            LuaManager manager = new LuaManager(this);
-                            serverToPlayersScript = manager.createScript(IOUtil.readInputStreamAsString(getResourceAsStream("lua/server_to_players.lua")));
-                            getPlayerCountScript = manager.createScript(IOUtil.readInputStreamAsString(getResourceAsStream("lua/get_player_count.lua")));
+                            luaManager = new LuaManager(this);
+                            serverToPlayersScript = luaManager.createScript("server_to_players");
+                            heartbeatScript = luaManager.createScript("heartbeat");
+                            serverPlayersPageScript = luaManager.createScript("server_players_page");
+                            findOnProxiesScript = luaManager.createScript("find_on_proxies");
+                            rebuildOnlineDigestScript = luaManager.createScript("rebuild_online_digest");
+                            cleanUpProxyScript = luaManager.createScript("clean_up_proxy");
+                            cleanUuidCacheScript = luaManager.createScript("clean_uuid_cache");
+                            RedisUtil.setUpdateOnlineScript(luaManager.createScript("update_online"));
+                            canUseTracking = RedisUtil.canUseTracking(version);
+                            canUseLexRanges = RedisUtil.canUseLexRanges(version);
+                            mojangRateLimiter = new MojangRateLimiter(luaManager.createScript("mojang_rate_limit"),
+                                    getLogger(), configuration.getMojangRequestsPerMinute());
+                            NameFetcher.setRateLimiter(mojangRateLimiter);
+                            UUIDFetcher.setRateLimiter(mojangRateLimiter);
+                            if (RedisUtil.canUseFunctions(version)) {
+                                luaManager.enableFunctions();
+                            }
+                            luaManager.loadAll(cli);
                         }
                         break;
                     }
                 }
 
-                cli.hset("heartbeats", configuration.getId(), cli.time().get(0));
-
-                long uuidCacheSize = cli.hlen("uuid-cache");
-                if (uuidCacheSize > 750000) {
-                    getLogger().info("Looks like you have a really big UUID cache! Run https://www.spigotmc.org/resources/redisbungeecleaner.8505/ as soon as possible.");
+                long sentAt = System.currentTimeMillis();
+                List<String> time = cli.time();
+                redisClock.sample(Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000, sentAt, System.currentTimeMillis());
+                cli.hset("heartbeats", configuration.getId(), time.get(0));
+                cli.set(RedisKeys.lease(configuration.getId()), SafeEncoder.encode(configuration.getId()), SafeEncoder.encode("NX"), SafeEncoder.encode("PX"), LEASE_MS);
+                try {
+                    List<String> notifications = cli.configGet("notify-keyspace-events");
+                    String flags = notifications.size() < 2 ? "" : notifications.get(1);
+                    if (!flags.contains("K") || !(flags.contains("x") || flags.contains("A"))) {
+                        getLogger().info("Redis does not send keyspace notifications for expired keys, so crashed proxies will only be cleaned up once their heartbeat is 30 seconds old. Set notify-keyspace-events to Kx to clean them up within seconds.");
+                    }
+                } catch (JedisDataException ignored) {
+                    // CONFIG is often disabled on hosted Redis, assume it was set up.
                 }
+                // Nobody is on this proxy yet, whatever the indexes hold was left behind.
+                RedisUtil.clearNameIndexes(cli, configuration.getId());
 
                 if (!getProxy().getConfig().isOnlineMode()) {
-                    String key = "proxy:" + configuration.getId() + ":all";
-                    Set<String> l = cli.smembers(key);
-                    if (!l.isEmpty()) cli.srem(key, l.toArray(new String[l.size()]));
+                    cli.del(RedisKeys.allNames(configuration.getId()));
                 }
             }
             serverIds = getCurrentServerIds(true, false);
-            uuidTranslator = new UUIDTranslator(this);
+            uuidTranslator = new UUIDTranslator(this, new UUIDResolver(httpClient, service, UUIDResolver.MOJANG_PROFILE_URL, mojangRateLimiter));
+            uuidCacheCleanerTask = service.scheduleWithFixedDelay(new UUIDCacheCleaner(this, uuidTranslator, cleanUuidCacheScript), 30, 10, TimeUnit.SECONDS);
+            serverGroupCounts = new ServerGroupCounts(this, configuration.getServerGroups());
+            leaderElection = new LeaderElection(this);
+            integrityChecker = new IntegrityCheck(this, findOnProxiesScript, rebuildOnlineDigestScript, cleanUpProxyScript);
+            final List<byte[]> heartbeatKeys = ImmutableList.of(SafeEncoder.encode("heartbeats"), RedisKeys.lease(configuration.getId()),
+                    SafeEncoder.encode(LeaderElection.LEADER_KEY), SafeEncoder.encode(LeaderElection.FENCE_KEY));
+            final byte[] rawId = SafeEncoder.encode(configuration.getId());
+            final byte[] rawLeaseMs = SafeEncoder.encode(String.valueOf(LEASE_MS));
+            final byte[] rawLeaderLeaseMs = SafeEncoder.encode(String.valueOf(LeaderElection.LEASE_MS));
             heartbeatTask = service.scheduleAtFixedRate(new Runnable() {
                 @Override
                 public void run() {
-                    try (val cli = pool.getResource()) {
-                        long redisTime = getRTime(cli);
-                        cli.hset("heartbeats", configuration.getId(), String.valueOf(redisTime));
+                    List<byte[]> args = ImmutableList.of(rawId, SafeEncoder.encode(String.valueOf(redisClock.currentTimeSeconds())), rawLeaseMs, rawLeaderLeaseMs);
+                    long sentAt = System.currentTimeMillis();
+                    try (Jedis jedis = pool.getResource()) {
+                        // The group counts go along with the heartbeat, so all of this is a single round trip.
+                        Pipeline pipeline = jedis.pipelined();
+                        Response<Object> heartbeat = heartbeatScript.queue(pipeline, heartbeatKeys, args);
+                        Map<String, List<Response<Long>>> groupCounts = serverGroupCounts.queue(pipeline);
+                        pipeline.sync();
+                        List<?> result = (List<?>) heartbeatScript.get(jedis, heartbeat, heartbeatKeys, args);
+
+                        long redisTime = (Long) result.get(0);
+                        redisClock.sample(redisTime, sentAt, System.currentTimeMillis());
+                        if ((Long) result.get(1) == 1) {
+                            // We were too slow, other proxies may have cleaned up our players already.
+                            getLogger().warning("The lease of this proxy expired, checking stored player data...");
+                            service.submit(integrityChecker);
+                        }
+                        leaderElection.update((String) result.get(2), Long.parseLong((String) result.get(3)), sentAt);
+                        globalPlayerCount.set(((Long) result.get(4)).intValue());
+
+                        List<?> flattened = (List<?>) result.get(5);
+                        Map<String, String> heartbeats = new HashMap<>(flattened.size() / 2);
+                        for (int i = 0; i + 1 < flattened.size(); i += 2) {
+                            heartbeats.put((String) flattened.get(i), (String) flattened.get(i + 1));
+                        }
+                        serverIds = filterServerIds(heartbeats, redisTime / 1000, true, false);
+                        laggedServerIds = filterServerIds(heartbeats, redisTime / 1000, false, true);
+                        serverGroupCounts.update(groupCounts);
                     } catch (JedisConnectionException e) {
                         // Redis server has disappeared!
                         getLogger().log(Level.SEVERE, "Unable to update heartbeat - did your Redis server go away?", e);
-                        return;
-                    }
-                    try {
-                        serverIds = getCurrentServerIds(true, false);
-                        globalPlayerCount.set(getCurrentCount());
                     } catch (Throwable e) {
                         getLogger().log(Level.SEVERE, "Unable to update data - did your Redis server go away?", e);
                     }
                 }
             }, 0, 3, TimeUnit.SECONDS);
-            dataManager = new DataManager(this);
+            boolean tracked = configuration.isClientSideCaching() && canUseTracking;
+            if (configuration.isClientSideCaching() && !canUseTracking) {
+                getLogger().warning("client-side-caching requires Redis 6 or newer, falling back to regular caching.");
+            }
+            dataManager = new DataManager(this, tracked);
+            if (configuration.isWarmCache()) {
+                warmCacheSnapshot = new WarmCacheSnapshot(this, new File(getDataFolder(), "warm-cache.dat"));
+                service.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        warmCacheSnapshot.load();
+                    }
+                });
+                warmCacheTask = service.scheduleWithFixedDelay(warmCacheSnapshot, 5, 5, TimeUnit.MINUTES);
+            }
             if (configuration.isRegisterBungeeCommands()) {
                 getProxy().getPluginManager().registerCommand(this, new RedisBungeeCommands.GlistCommand(this));
                 getProxy().getPluginManager().registerCommand(this, new RedisBungeeCommands.FindCommand(this));
@@ -331,75 +546,20 @@ public final class RedisBungee extends Plugin {
             getProxy().getPluginManager().registerCommand(this, new RedisBungeeCommands.PlayerProxyCommand(this));
             getProxy().getPluginManager().registerCommand(this, new RedisBungeeCommands.PlistCommand(this));
             getProxy().getPluginManager().registerCommand(this, new RedisBungeeCommands.DebugCommand(this));
+            pluginMessageCache = new PluginMessageCache(configuration.getPluginMessageCacheMs());
+            backendSubscriptions = new BackendSubscriptions(this);
             api = new RedisBungeeAPI(this);
+            asyncApi = new AsyncRedisBungeeAPI(this);
             getProxy().getPluginManager().registerListener(this, new RedisBungeeListener(this, configuration.getExemptAddresses()));
             getProxy().getPluginManager().registerListener(this, dataManager);
+            getProxy().getPluginManager().registerListener(this, backendSubscriptions);
             psl = new PubSubListener();
             getProxy().getScheduler().runAsync(this, psl);
-            integrityCheck = service.scheduleAtFixedRate(new Runnable() {
-                @Override
-                public void run() {
-                    try (Jedis tmpRsc = pool.getResource()) {
-                        Set<String> players = getLocalPlayersAsUuidStrings();
-                        Set<String> playersInRedis = tmpRsc.smembers("proxy:" + configuration.getId() + ":usersOnline");
-                        List<String> lagged = getCurrentServerIds(false, true);
-
-                        // Clean up lagged players.
-                        boolean online = getProxy().getConfig().isOnlineMode();
-                        for (String s : lagged) {
-                            Set<String> laggedPlayers = tmpRsc.smembers("proxy:" + s + ":usersOnline");
-                            tmpRsc.del("proxy:" + s + ":usersOnline");
-                            if (!laggedPlayers.isEmpty()) {
-                                getLogger().info("Cleaning up lagged proxy " + s + " (" + laggedPlayers.size() + " players)...");
-                                for (String laggedPlayer : laggedPlayers) {
-                                    RedisUtil.cleanUpPlayer(laggedPlayer, tmpRsc, online);
-                                }
-                            }
-                        }
-
-                        Set<String> absentLocally = new HashSet<>(playersInRedis);
-                        absentLocally.removeAll(players);
-                        Set<String> absentInRedis = new HashSet<>(players);
-                        absentInRedis.removeAll(playersInRedis);
-
-                        for (String member : absentLocally) {
-                            boolean found = false;
-                            for (String proxyId : getServerIds()) {
-                                if (proxyId.equals(configuration.getId())) continue;
-                                if (tmpRsc.sismember("proxy:" + proxyId + ":usersOnline", member)) {
-                                    // Just clean up the set.
-                                    found = true;
-                                    break;
-                                }
-                            }
-                            if (!found) {
-                                RedisUtil.cleanUpPlayer(member, tmpRsc, online);
-                                getLogger().warning("Player found in set that was not found locally and globally: " + member);
-                            } else {
-                                tmpRsc.srem("proxy:" + configuration.getId() + ":usersOnline", member);
-                                getLogger().warning("Player found in set that was not found locally, but is on another proxy: " + member);
-                            }
-                        }
-
-                        Pipeline pipeline = tmpRsc.pipelined();
-
-                        for (String player : absentInRedis) {
-                            // Player not online according to Redis but not BungeeCord.
-                            getLogger().warning("Player " + player + " is on the proxy but not in Redis.");
-
-                            ProxiedPlayer proxiedPlayer = ProxyServer.getInstance().getPlayer(UUID.fromString(player));
-                            if (proxiedPlayer == null)
-                                continue; // We'll deal with it later.
-
-                            RedisUtil.createPlayer(proxiedPlayer, pipeline, true);
-                        }
-
-                        pipeline.sync();
-                    } catch (Throwable e) {
-                        getLogger().log(Level.SEVERE, "Unable to fix up stored player data", e);
-                    }
-                }
-            }, 0, 1, TimeUnit.MINUTES);
+            if (tracked) {
+                keyTrackingListener = new KeyTrackingListener(this, redisServer, redisPort, redisPassword);
+                getProxy().getScheduler().runAsync(this, keyTrackingListener);
+            }
+            integrityCheck = service.scheduleAtFixedRate(integrityChecker, 0, 1, TimeUnit.MINUTES);
         }
         getProxy().registerChannel("RedisBungee");
         PSPEPingHandler.bind(this);
@@ -410,23 +570,30 @@ public final class RedisBungee extends Plugin {
         if (pool != null) {
             // Poison the PubSub listener
             psl.poison();
+            if (keyTrackingListener != null) {
+                keyTrackingListener.poison();
+            }
             integrityCheck.cancel(true);
             heartbeatTask.cancel(true);
+            uuidCacheCleanerTask.cancel(true);
+            if (warmCacheSnapshot != null) {
+                warmCacheTask.cancel(false);
+                warmCacheSnapshot.save();
+            }
             getProxy().getPluginManager().unregisterListeners(this);
 
+            long deadline = System.currentTimeMillis() + SHUTDOWN_CLEANUP_BUDGET_MS;
             try (Jedis j = pool.getResource()) {
-                j.hdel("heartbeats", configuration.getId());
-                boolean online = getProxy().getConfig().isOnlineMode();
-                if (j.scard("proxy:" + configuration.getId() + ":usersOnline") > 0) {
-                    Set<String> players = j.smembers("proxy:" + configuration.getId() + ":usersOnline");
-                    for (String member : players)
-                        RedisUtil.cleanUpPlayer(member, j, online);
-                }
-                if (!online) {
-                    String key = "proxy:" + configuration.getId() + ":all";
-                    Set<String> l = j.smembers(key);
-                    if (!l.isEmpty()) j.srem(key, l.toArray(new String[l.size()]));
+                IntegrityCheck.timeOutAt(j, deadline);
+                leaderElection.release(j);
+                if (integrityChecker.cleanUpOnShutdown(j, deadline)) {
+                    j.hdel("heartbeats", configuration.getId());
+                } else {
+                    // Our heartbeat stays, so the other proxies will finish the job even without keyspace notifications.
+                    getLogger().warning("Unable to remove all players from Redis within " + SHUTDOWN_CLEANUP_BUDGET_MS + "ms, leaving the rest to the other proxies.");
                 }
+            } catch (JedisException e) {
+                getLogger().log(Level.SEVERE, "Unable to remove players from Redis - did your Redis server go away?", e);
             }
 
             pool.destroy();
@@ -450,9 +617,9 @@ public final class RedisBungee extends Plugin {
 
         final Configuration configuration = ConfigurationProvider.getProvider(YamlConfiguration.class).load(file);
 
-        final String redisServer = configuration.getString("redis-server", "localhost");
-        final int redisPort = configuration.getInt("redis-port", 6379);
-        String redisPassword = configuration.getString("redis-password");
+        redisServer = configuration.getString("redis-server", "localhost");
+        redisPort = configuration.getInt("redis-port", 6379);
+        redisPassword = configuration.getString("redis-password");
 
         if (redisPassword != null && (redisPassword.isEmpty() || redisPassword.equals("none"))) {
             redisPassword = null;
@@ -538,6 +705,13 @@ public final class RedisBungee extends Plugin {
         return inet.getLocalAddress().getHostAddress().replace('.', '_') + "_" + l.getHost().getPort();
     }
 
+    @Getter
+    @RequiredArgsConstructor
+    static final class NamePage {
+        private final int total;
+        private final List<String> names;
+    }
+
     @NoArgsConstructor(access = AccessLevel.PRIVATE)
     class PubSubListener implements Runnable {
         private JedisPubSubHandler jpsh;
@@ -584,6 +758,25 @@ public final class RedisBungee extends Plugin {
     }
 
     private class JedisPubSubHandler extends JedisPubSub {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            // Jedis can't subscribe to channels and patterns in one go, so the lease pattern follows our own channel.
+            if (channel.equals("redisbungee-" + configuration.getId())) {
+                psubscribe(IntegrityCheck.LEASE_PATTERN);
+            }
+        }
+
+        @Override
+        public void onPMessage(String pattern, final String channel, final String message) {
+            // Lease events are only for the integrity check, other plugins don't get to see them.
+            getProxy().getScheduler().runAsync(RedisBungee.this, new Runnable() {
+                @Override
+                public void run() {
+                    integrityChecker.onLeaseEvent(channel, message);
+                }
+            });
+        }
+
         @Override
         public void onMessage(final String s, final String s2) {
             if (s2.trim().length() == 0) return;
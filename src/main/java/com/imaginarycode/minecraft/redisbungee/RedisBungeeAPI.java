@@ -4,6 +4,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
+import com.imaginarycode.minecraft.redisbungee.util.uuid.UUIDTranslator;
 import lombok.NonNull;
 import net.md_5.bungee.api.config.ServerInfo;
 
@@ -12,6 +13,8 @@ import java.util.*;
 
 /**
  * This class exposes some internal RedisBungee functions. You obtain an instance of this object by invoking {@link RedisBungee#getApi()}.
+ * <p>
+ * Most of these methods block on Redis. Non-blocking variants are available from {@link AsyncRedisBungeeAPI}.
  *
  * @author tuxed
  * @since 0.2.3
@@ -29,6 +32,10 @@ public class RedisBungeeAPI {
         );
     }
 
+    UUIDTranslator getUuidTranslator() {
+        return plugin.getUuidTranslator();
+    }
+
     /**
      * Get a combined count of all players on this network.
      *
@@ -80,11 +87,7 @@ public class RedisBungeeAPI {
      * @since 0.3
      */
     public final Collection<String> getHumanPlayersOnline() {
-        Set<String> names = new HashSet<>();
-        for (UUID uuid : getPlayersOnline()) {
-            names.add(getNameFromUuid(uuid, false));
-        }
-        return names;
+        return new HashSet<>(plugin.getUuidTranslator().getNamesFromUuids(getPlayersOnline(), false).values());
     }
 
     /**
@@ -117,6 +120,20 @@ public class RedisBungeeAPI {
         return plugin.getPlayersOnProxy(server);
     }
 
+    /**
+     * Find players on the network whose name starts with the given prefix, ignoring case. This is meant for tab
+     * completion, and only takes a single query to Redis. On Redis older than 2.8.9, only players on this proxy are
+     * found.
+     *
+     * @param prefix the start of the name
+     * @param limit  the maximum number of names to return
+     * @return up to {@code limit} names, in alphabetical order
+     * @since 0.4
+     */
+    public final List<String> getPlayerNamesByPrefix(@NonNull String prefix, int limit) {
+        return plugin.getPlayerNamesByPrefix(prefix, limit);
+    }
+
     /**
      * Convenience method: Checks if the specified player is online.
      *
@@ -184,6 +201,40 @@ public class RedisBungeeAPI {
         plugin.sendChannelMessage(channel, message);
     }
 
+    /**
+     * Returns whether this proxy is currently the leader of the network. Exactly one proxy is the leader at a time,
+     * which makes it the place to run chores that should happen once for the whole network rather than on every proxy.
+     * If the leader stops, another proxy takes over within seconds.
+     *
+     * @return whether this proxy is the leader
+     * @since 0.4
+     */
+    public final boolean isLeader() {
+        return plugin.getLeaderElection().isLeader();
+    }
+
+    /**
+     * Get the ID of the proxy that is the leader of the network, as last seen by this proxy.
+     *
+     * @return the leader's proxy ID, or null if there is none yet
+     * @since 0.4
+     */
+    public final String getLeader() {
+        return plugin.getLeaderElection().getLeader();
+    }
+
+    /**
+     * Get the fencing token of the current leadership. It grows every time the leadership changes hands, so a leader
+     * can store it alongside what it writes, and writes carrying a lower token than one already seen can be rejected
+     * as coming from a leader that has been replaced.
+     *
+     * @return the fencing token, or -1 if there is no leader yet
+     * @since 0.4
+     */
+    public final long getLeaderFencingToken() {
+        return plugin.getLeaderElection().getFencingToken();
+    }
+
     /**
      * Get the current BungeeCord server ID for this server.
      *
@@ -1,8 +1,11 @@
 package com.imaginarycode.minecraft.redisbungee;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.imaginarycode.minecraft.redisbungee.util.LuaManager;
+import com.imaginarycode.minecraft.redisbungee.util.uuid.MojangRateLimiter;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.chat.BaseComponent;
@@ -10,9 +13,11 @@ import net.md_5.bungee.api.chat.ComponentBuilder;
 import net.md_5.bungee.api.chat.TextComponent;
 import net.md_5.bungee.api.config.ServerInfo;
 import net.md_5.bungee.api.plugin.Command;
+import net.md_5.bungee.api.plugin.TabExecutor;
 
 import java.net.InetAddress;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -33,6 +38,53 @@ class RedisBungeeCommands {
             new ComponentBuilder("No such player found.").color(ChatColor.RED).create();
     private static final BaseComponent[] NO_COMMAND_SPECIFIED =
             new ComponentBuilder("You must specify a command to be run.").color(ChatColor.RED).create();
+    private static final int TAB_COMPLETE_LIMIT = 20;
+    private static final int NAMES_PER_PAGE = 100;
+
+    private static Iterable<String> completePlayerName(RedisBungee plugin, String[] args) {
+        if (args.length != 1)
+            return Collections.emptyList();
+        try {
+            return plugin.getPlayerNamesByPrefix(args[0], TAB_COMPLETE_LIMIT);
+        } catch (RuntimeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Sends one page of the players on a server, reading only that page from Redis.
+     *
+     * @param proxy   the proxy to list the players of, or null for the whole network
+     * @param command the command to repeat with the next page number
+     */
+    private static void sendServerPage(CommandSender sender, RedisBungee plugin, String proxy, String server, String pageArg, String command) {
+        int page;
+        try {
+            page = pageArg == null ? 1 : Integer.parseInt(pageArg);
+        } catch (NumberFormatException e) {
+            page = 0;
+        }
+        if (page < 1) {
+            sender.sendMessage(new ComponentBuilder(pageArg + " is not a valid page number.").color(ChatColor.RED).create());
+            return;
+        }
+
+        RedisBungee.NamePage names = plugin.getServerPlayerNames(server, proxy, (page - 1) * NAMES_PER_PAGE, NAMES_PER_PAGE);
+        int pages = Math.max(1, (names.getTotal() + NAMES_PER_PAGE - 1) / NAMES_PER_PAGE);
+        TextComponent serverName = new TextComponent();
+        serverName.setColor(proxy == null ? ChatColor.GREEN : ChatColor.RED);
+        serverName.setText("[" + server + "] ");
+        TextComponent serverCount = new TextComponent();
+        serverCount.setColor(ChatColor.YELLOW);
+        serverCount.setText("(" + names.getTotal() + ", page " + page + "/" + pages + "): ");
+        TextComponent serverPlayers = new TextComponent();
+        serverPlayers.setColor(ChatColor.WHITE);
+        serverPlayers.setText(Joiner.on(", ").join(names.getNames()));
+        sender.sendMessage(serverName, serverCount, serverPlayers);
+        if (page < pages) {
+            sender.sendMessage(new ComponentBuilder("Use " + command + " " + (page + 1) + " to see the next page.").color(ChatColor.YELLOW).create());
+        }
+    }
 
     private static String playerPlural(int num) {
         return num == 1 ? num + " player is" : num + " players are";
@@ -54,11 +106,16 @@ class RedisBungeeCommands {
                     int count = RedisBungee.getApi().getPlayerCount();
                     BaseComponent[] playersOnline = new ComponentBuilder("").color(ChatColor.YELLOW)
                             .append(playerPlural(count) + " currently online.").create();
-                    if (args.length > 0 && args[0].equals("showall")) {
+                    if (args.length > 1 && args[0].equals("showall")) {
+                        sendServerPage(sender, plugin, null, args[1], args.length > 2 ? args[2] : null, "/glist showall " + args[1]);
+                    } else if (args.length > 0 && args[0].equals("showall")) {
                         Multimap<String, UUID> serverToPlayers = RedisBungee.getApi().getServerToPlayers();
+                        Map<UUID, String> names = plugin.getUuidTranslator().getNamesFromUuids(serverToPlayers.values(), false);
                         Multimap<String, String> human = HashMultimap.create();
                         for (Map.Entry<String, UUID> entry : serverToPlayers.entries()) {
-                            human.put(entry.getKey(), plugin.getUuidTranslator().getNameFromUuid(entry.getValue(), false));
+                            String name = names.get(entry.getValue());
+                            if (name != null)
+                                human.put(entry.getKey(), name);
                         }
                         for (String server : new TreeSet<>(serverToPlayers.keySet())) {
                             TextComponent serverName = new TextComponent();
@@ -75,14 +132,14 @@ class RedisBungeeCommands {
                         sender.sendMessage(playersOnline);
                     } else {
                         sender.sendMessage(playersOnline);
-                        sender.sendMessage(new ComponentBuilder("To see all players online, use /glist showall.").color(ChatColor.YELLOW).create());
+                        sender.sendMessage(new ComponentBuilder("To see all players online, use /glist showall, or /glist showall <server> [page] for one server.").color(ChatColor.YELLOW).create());
                     }
                 }
             });
         }
     }
 
-    public static class FindCommand extends Command {
+    public static class FindCommand extends Command implements TabExecutor {
         private final RedisBungee plugin;
 
         FindCommand(RedisBungee plugin) {
@@ -116,9 +173,14 @@ class RedisBungeeCommands {
                 }
             });
         }
+
+        @Override
+        public Iterable<String> onTabComplete(CommandSender sender, String[] args) {
+            return completePlayerName(plugin, args);
+        }
     }
 
-    public static class LastSeenCommand extends Command {
+    public static class LastSeenCommand extends Command implements TabExecutor {
         private final RedisBungee plugin;
 
         LastSeenCommand(RedisBungee plugin) {
@@ -156,9 +218,14 @@ class RedisBungeeCommands {
                 }
             });
         }
+
+        @Override
+        public Iterable<String> onTabComplete(CommandSender sender, String[] args) {
+            return completePlayerName(plugin, args);
+        }
     }
 
-    public static class IpCommand extends Command {
+    public static class IpCommand extends Command implements TabExecutor {
         private final RedisBungee plugin;
 
         IpCommand(RedisBungee plugin) {
@@ -192,9 +259,14 @@ class RedisBungeeCommands {
                 }
             });
         }
+
+        @Override
+        public Iterable<String> onTabComplete(CommandSender sender, String[] args) {
+            return completePlayerName(plugin, args);
+        }
     }
 
-    public static class PlayerProxyCommand extends Command {
+    public static class PlayerProxyCommand extends Command implements TabExecutor {
         private final RedisBungee plugin;
 
         PlayerProxyCommand(RedisBungee plugin) {
@@ -228,6 +300,11 @@ class RedisBungeeCommands {
                 }
             });
         }
+
+        @Override
+        public Iterable<String> onTabComplete(CommandSender sender, String[] args) {
+            return completePlayerName(plugin, args);
+        }
     }
 
     public static class SendToAll extends Command {
@@ -305,12 +382,16 @@ class RedisBungeeCommands {
                     Set<UUID> players = RedisBungee.getApi().getPlayersOnProxy(proxy);
                     BaseComponent[] playersOnline = new ComponentBuilder("").color(ChatColor.YELLOW)
                             .append(playerPlural(players.size()) + " currently on proxy " + proxy + ".").create();
-                    if (args.length >= 2 && args[1].equals("showall")) {
+                    if (args.length >= 3 && args[1].equals("showall")) {
+                        sendServerPage(sender, plugin, proxy, args[2], args.length >= 4 ? args[3] : null, "/plist " + proxy + " showall " + args[2]);
+                    } else if (args.length >= 2 && args[1].equals("showall")) {
                         Multimap<String, UUID> serverToPlayers = RedisBungee.getApi().getServerToPlayers();
+                        Map<UUID, String> names = plugin.getUuidTranslator().getNamesFromUuids(players, false);
                         Multimap<String, String> human = HashMultimap.create();
                         for (Map.Entry<String, UUID> entry : serverToPlayers.entries()) {
-                            if (players.contains(entry.getValue())) {
-                                human.put(entry.getKey(), plugin.getUuidTranslator().getNameFromUuid(entry.getValue(), false));
+                            String name = names.get(entry.getValue());
+                            if (name != null) {
+                                human.put(entry.getKey(), name);
                             }
                         }
                         for (String server : new TreeSet<>(human.keySet())) {
@@ -351,6 +432,34 @@ class RedisBungeeCommands {
             sender.sendMessage(poolActiveStat);
             sender.sendMessage(poolIdleStat);
             sender.sendMessage(poolWaitingStat);
+            LeaderElection election = plugin.getLeaderElection();
+            TextComponent leaderStat = new TextComponent("Leader: " + election.getLeader() + " (fencing token " + election.getFencingToken() + ")");
+            sender.sendMessage(leaderStat);
+            sender.sendMessage(new TextComponent("Redis clock offset: " + plugin.getRedisClock().getOffset() + "ms"));
+            sender.sendMessage(new TextComponent("Scripts called with: " + (plugin.getLuaManager().isUsingFunctions() ? "FCALL" : "EVALSHA")));
+            for (LuaManager.Script script : plugin.getLuaManager().getScripts()) {
+                sender.sendMessage(new TextComponent("Script " + script.getName() + ": " + script.getCalls() + " calls, " +
+                        String.format("%.2f", script.getAverageMillis()) + "ms average"));
+            }
+            CacheStats uuidCacheStats = plugin.getUuidTranslator().getCacheStats();
+            TextComponent uuidCacheStat = new TextComponent("UUID cache: " + plugin.getUuidTranslator().getCacheSize() + " entries, ~" +
+                    plugin.getUuidTranslator().estimateCacheFootprint() / 1024 + " KiB, " +
+                    String.format("%.1f", uuidCacheStats.hitRate() * 100) + "% hit rate (" + uuidCacheStats.requestCount() + " requests)");
+            sender.sendMessage(uuidCacheStat);
+            PluginMessageCache messageCache = plugin.getPluginMessageCache();
+            if (messageCache.isEnabled()) {
+                CacheStats messageStats = messageCache.getStats();
+                TextComponent messageCacheStat = new TextComponent("Plugin message cache: " +
+                        String.format("%.1f", messageStats.hitRate() * 100) + "% hit rate (" + messageStats.requestCount() + " requests)");
+                sender.sendMessage(messageCacheStat);
+            }
+            MojangRateLimiter limiter = plugin.getMojangRateLimiter();
+            if (limiter != null) {
+                TextComponent mojangStat = new TextComponent("Mojang lookups: " + limiter.getGrantedCount() + " allowed, " +
+                        limiter.getThrottledCount() + " throttled, " + limiter.getWaitingCount() + " waiting, " +
+                        plugin.getUuidTranslator().getResolver().getQueuedCount() + " names queued");
+                sender.sendMessage(mojangStat);
+            }
         }
     }
 }
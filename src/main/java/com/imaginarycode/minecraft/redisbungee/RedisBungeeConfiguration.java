@@ -1,6 +1,7 @@
 package com.imaginarycode.minecraft.redisbungee;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.InetAddresses;
 import lombok.Getter;
 import net.md_5.bungee.config.Configuration;
@@ -8,6 +9,7 @@ import redis.clients.jedis.JedisPool;
 
 import java.net.InetAddress;
 import java.util.List;
+import java.util.Map;
 
 public class RedisBungeeConfiguration {
     @Getter
@@ -18,11 +20,35 @@ public class RedisBungeeConfiguration {
     private final boolean registerBungeeCommands;
     @Getter
     private final List<InetAddress> exemptAddresses;
+    @Getter
+    private final boolean clientSideCaching;
+    @Getter
+    private final int mojangRequestsPerMinute;
+    @Getter
+    private final boolean warmCache;
+    @Getter
+    private final int pluginMessageCacheMs;
+    @Getter
+    private final Map<String, List<String>> serverGroups;
+    @Getter
+    private final String pocketServerGroup;
 
     public RedisBungeeConfiguration(JedisPool pool, Configuration configuration, String id) {
         this.id = id;
         this.pool = pool;
         registerBungeeCommands = configuration.getBoolean("register-bungee-commands", true);
+        clientSideCaching = configuration.getBoolean("client-side-caching", false);
+        mojangRequestsPerMinute = configuration.getInt("mojang-requests-per-minute", 60);
+        warmCache = configuration.getBoolean("warm-cache", false);
+        pluginMessageCacheMs = configuration.getInt("plugin-message-cache-ms", 1000);
+        pocketServerGroup = configuration.getString("pocket-server-group", "");
+
+        Configuration groups = configuration.getSection("server-groups");
+        ImmutableMap.Builder<String, List<String>> groupBuilder = ImmutableMap.builder();
+        for (String group : groups.getKeys()) {
+            groupBuilder.put(group, ImmutableList.copyOf(groups.getStringList(group)));
+        }
+        this.serverGroups = groupBuilder.build();
 
         List<String> stringified = configuration.getStringList("exempt-ip-addresses");
         ImmutableList.Builder<InetAddress> addressBuilder = ImmutableList.builder();
@@ -9,6 +9,8 @@ import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 import com.imaginarycode.minecraft.redisbungee.events.PubSubMessageEvent;
 import com.imaginarycode.minecraft.redisbungee.util.RedisCallable;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
+import com.imaginarycode.minecraft.redisbungee.util.UUIDUtil;
 import lombok.AllArgsConstructor;
 import net.md_5.bungee.api.AbstractReconnectHandler;
 import net.md_5.bungee.api.ChatColor;
@@ -29,6 +31,7 @@ import net.md_5.bungee.event.EventHandler;
 import net.md_5.bungee.event.EventPriority;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.util.SafeEncoder;
 
 import java.net.InetAddress;
 import java.util.Arrays;
@@ -39,6 +42,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
 @AllArgsConstructor
 public class RedisBungeeListener implements Listener {
@@ -52,6 +56,7 @@ public class RedisBungeeListener implements Listener {
                     .append("\n\nWe found someone online using your username. They were kicked and you may reconnect.\nIf this does not work, please contact staff.")
                     .color(ChatColor.GRAY)
                     .create();
+    private static final byte[] SERVER = SafeEncoder.encode("server");
     private final RedisBungee plugin;
     private final List<InetAddress> exemptAddresses;
 
@@ -79,19 +84,14 @@ public class RedisBungeeListener implements Listener {
                         }
                     }
 
-                    String key;
-                    String value;
-
-                    if (plugin.getProxy().getConfig().isOnlineMode()) {
-                        key = "proxy:%s:usersOnline";
-                        value = event.getConnection().getUniqueId().toString();
-                    } else {
-                        key = "proxy:%s:all";
-                        value = event.getConnection().getName().toLowerCase();
-                    }
+                    boolean onlineMode = plugin.getProxy().getConfig().isOnlineMode();
+                    byte[] value = onlineMode
+                            ? UUIDUtil.toAscii(event.getConnection().getUniqueId())
+                            : SafeEncoder.encode(event.getConnection().getName().toLowerCase());
 
                     for (String id : plugin.getServerIds()) {
-                        if (jedis.sismember(String.format(key, id), value)) {
+                        byte[] key = onlineMode ? RedisKeys.usersOnline(id) : RedisKeys.allNames(id);
+                        if (jedis.sismember(key, value)) {
                             event.setCancelled(true);
                             // TODO: Make it accept a BaseComponent[] like everything else.
                             event.setCancelReason(TextComponent.toLegacyText(ALREADY_LOGGED_IN));
@@ -101,9 +101,10 @@ public class RedisBungeeListener implements Listener {
 
                     Pipeline pipeline = jedis.pipelined();
                     plugin.getUuidTranslator().persistInfo(event.getConnection().getName(), event.getConnection().getUniqueId(), pipeline);
-                    RedisUtil.createPlayer(event.getConnection(), pipeline, false);
+                    RedisUtil.OnlineChange change = RedisUtil.createPlayer(event.getConnection(), pipeline, false);
                     // We're not publishing, the API says we only publish at PostLoginEvent time.
                     pipeline.sync();
+                    change.confirm(jedis);
 
                     return null;
                 } finally {
@@ -132,8 +133,9 @@ public class RedisBungeeListener implements Listener {
             @Override
             protected Void call(Jedis jedis) {
                 Pipeline pipeline = jedis.pipelined();
-                RedisUtil.cleanUpPlayer(event.getPlayer(), pipeline);
+                RedisUtil.OnlineChange change = RedisUtil.cleanUpPlayer(event.getPlayer(), pipeline);
                 pipeline.sync();
+                change.confirm(jedis);
                 return null;
             }
         });
@@ -145,7 +147,15 @@ public class RedisBungeeListener implements Listener {
         plugin.getProxy().getScheduler().runAsync(plugin, new RedisCallable<Void>(plugin) {
             @Override
             protected Void call(Jedis jedis) {
-                jedis.hset("player:" + event.getPlayer().getUniqueId().toString(), "server", event.getServer().getInfo().getName());
+                String proxyId = RedisBungee.getConfiguration().getId();
+                byte[] member = RedisKeys.nameIndexMember(event.getPlayer().getName());
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.hset(RedisKeys.player(event.getPlayer().getUniqueId()), SERVER, SafeEncoder.encode(event.getServer().getInfo().getName()));
+                if (currentServer != null) {
+                    pipeline.zrem(RedisKeys.serverNameIndex(proxyId, currentServer), member);
+                }
+                pipeline.zadd(RedisKeys.serverNameIndex(proxyId, event.getServer().getInfo().getName()), 0, member);
+                pipeline.sync();
                 jedis.publish("redisbungee-data", RedisBungee.getGson().toJson(new DataManager.DataManagerMessage<>(
                         event.getPlayer().getUniqueId(), DataManager.DataManagerMessage.Action.SERVER_CHANGE,
                         new DataManager.ServerChangePayload(event.getServer().getInfo().getName(), currentServer))));
@@ -162,6 +172,13 @@ public class RedisBungeeListener implements Listener {
 
         ServerInfo forced = AbstractReconnectHandler.getForcedHost(event.getConnection());
 
+        // Forced hosts for a server group show the group's count, even when the ping is passed through.
+        int groupCount = forced == null ? -1 : plugin.getServerGroupCounts().getCountForServer(forced.getName());
+        if (groupCount >= 0) {
+            event.getResponse().getPlayers().setOnline(groupCount);
+            return;
+        }
+
         if (forced != null && event.getConnection().getListener().isPingPassthrough()) {
             return;
         }
@@ -179,100 +196,131 @@ public class RedisBungeeListener implements Listener {
                     ByteArrayDataInput in = ByteStreams.newDataInput(data);
 
                     String subchannel = in.readUTF();
+                    if (subchannel.equals(PluginMessageV2.SUBCHANNEL)) {
+                        new PluginMessageV2(plugin).handle(in, (Server) event.getSender());
+                        return;
+                    }
+
+                    PluginMessageCache cache = plugin.getPluginMessageCache();
                     ByteArrayDataOutput out = ByteStreams.newDataOutput();
-                    String type;
+                    byte[] response;
 
                     switch (subchannel) {
                         case "PlayerList":
-                            out.writeUTF("PlayerList");
-                            Set<UUID> original = Collections.emptySet();
-                            type = in.readUTF();
-                            if (type.equals("ALL")) {
-                                out.writeUTF("ALL");
-                                original = plugin.getPlayers();
-                            } else {
-                                try {
-                                    original = RedisBungee.getApi().getPlayersOnServer(type);
-                                } catch (IllegalArgumentException ignored) {
+                            final String listType = in.readUTF();
+                            response = cache.get("PlayerList\0" + listType, new Callable<byte[]>() {
+                                @Override
+                                public byte[] call() throws Exception {
+                                    return playerList(listType);
                                 }
-                            }
-                            Set<String> players = new HashSet<>();
-                            for (UUID uuid : original)
-                                players.add(plugin.getUuidTranslator().getNameFromUuid(uuid, false));
-                            out.writeUTF(Joiner.on(',').join(players));
+                            });
                             break;
                         case "PlayerCount":
-                            out.writeUTF("PlayerCount");
-                            type = in.readUTF();
-                            if (type.equals("ALL")) {
-                                out.writeUTF("ALL");
-                                out.writeInt(plugin.getCount());
-                            } else {
-                                out.writeUTF(type);
-                                try {
-                                    out.writeInt(RedisBungee.getApi().getPlayersOnServer(type).size());
-                                } catch (IllegalArgumentException e) {
-                                    out.writeInt(0);
+                            final String countType = in.readUTF();
+                            response = cache.get("PlayerCount\0" + countType, new Callable<byte[]>() {
+                                @Override
+                                public byte[] call() throws Exception {
+                                    return playerCount(countType);
                                 }
-                            }
+                            });
                             break;
                         case "LastOnline":
                             String user = in.readUTF();
                             out.writeUTF("LastOnline");
                             out.writeUTF(user);
                             out.writeLong(RedisBungee.getApi().getLastOnline(plugin.getUuidTranslator().getTranslatedUuid(user, true)));
+                            response = out.toByteArray();
                             break;
                         case "ServerPlayers":
-                            String type1 = in.readUTF();
-                            out.writeUTF("ServerPlayers");
-                            Multimap<String, UUID> multimap = RedisBungee.getApi().getServerToPlayers();
-
-                            boolean includesUsers;
-
-                            switch (type1) {
-                                case "COUNT":
-                                    includesUsers = false;
-                                    break;
-                                case "PLAYERS":
-                                    includesUsers = true;
-                                    break;
-                                default:
-                                    // TODO: Should I raise an error?
-                                    return;
+                            final String type1 = in.readUTF();
+                            if (!type1.equals("COUNT") && !type1.equals("PLAYERS")) {
+                                // TODO: Should I raise an error?
+                                return;
                             }
-
-                            out.writeUTF(type1);
-
-                            if (includesUsers) {
-                                Multimap<String, String> human = HashMultimap.create();
-                                for (Map.Entry<String, UUID> entry : multimap.entries()) {
-                                    human.put(entry.getKey(), plugin.getUuidTranslator().getNameFromUuid(entry.getValue(), false));
+                            response = cache.get("ServerPlayers\0" + type1, new Callable<byte[]>() {
+                                @Override
+                                public byte[] call() throws Exception {
+                                    return serverPlayers(type1);
                                 }
-                                serializeMultimap(human, true, out);
-                            } else {
-                                serializeMultiset(multimap.keys(), out);
-                            }
+                            });
                             break;
                         case "Proxy":
                             out.writeUTF("Proxy");
                             out.writeUTF(RedisBungee.getConfiguration().getId());
+                            response = out.toByteArray();
                             break;
                         case "PlayerProxy":
                             String username = in.readUTF();
                             out.writeUTF("PlayerProxy");
                             out.writeUTF(username);
                             out.writeUTF(RedisBungee.getApi().getProxy(plugin.getUuidTranslator().getTranslatedUuid(username, true)));
+                            response = out.toByteArray();
                             break;
                         default:
                             return;
                     }
 
-                    ((Server) event.getSender()).sendData("RedisBungee", out.toByteArray());
+                    ((Server) event.getSender()).sendData("RedisBungee", response);
                 }
             });
         }
     }
 
+    private byte[] playerList(String type) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF("PlayerList");
+        Set<UUID> original = Collections.emptySet();
+        if (type.equals("ALL")) {
+            out.writeUTF("ALL");
+            original = plugin.getPlayers();
+        } else {
+            try {
+                original = RedisBungee.getApi().getPlayersOnServer(type);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        Set<String> players = new HashSet<>(plugin.getUuidTranslator().getNamesFromUuids(original, false).values());
+        out.writeUTF(Joiner.on(',').join(players));
+        return out.toByteArray();
+    }
+
+    private byte[] playerCount(String type) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF("PlayerCount");
+        if (type.equals("ALL")) {
+            out.writeUTF("ALL");
+            out.writeInt(plugin.getCount());
+        } else {
+            out.writeUTF(type);
+            try {
+                out.writeInt(RedisBungee.getApi().getPlayersOnServer(type).size());
+            } catch (IllegalArgumentException e) {
+                out.writeInt(0);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] serverPlayers(String type) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF("ServerPlayers");
+        out.writeUTF(type);
+        Multimap<String, UUID> multimap = RedisBungee.getApi().getServerToPlayers();
+        if (type.equals("PLAYERS")) {
+            Map<UUID, String> names = plugin.getUuidTranslator().getNamesFromUuids(multimap.values(), false);
+            Multimap<String, String> human = HashMultimap.create();
+            for (Map.Entry<String, UUID> entry : multimap.entries()) {
+                String name = names.get(entry.getValue());
+                if (name != null)
+                    human.put(entry.getKey(), name);
+            }
+            serializeMultimap(human, true, out);
+        } else {
+            serializeMultiset(multimap.keys(), out);
+        }
+        return out.toByteArray();
+    }
+
     private void serializeMultiset(Multiset<String> collection, ByteArrayDataOutput output) {
         output.writeInt(collection.elementSet().size());
         for (Multiset.Entry<String> entry : collection.entrySet()) {
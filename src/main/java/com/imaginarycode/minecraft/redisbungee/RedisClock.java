@@ -0,0 +1,40 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+/**
+ * Estimates the Redis server's clock from the local one, so the current Redis time is known without asking for it.
+ * <p>
+ * Each heartbeat reports the Redis time it saw and when the request was sent and answered. The Redis time is assumed to
+ * have been taken halfway through, and the offset from the local clock is smoothed over several heartbeats.
+ */
+class RedisClock {
+    // Slow round trips say little about when the time was taken.
+    private static final long MAX_SAMPLE_RTT_MS = 1000;
+    private static final int SMOOTHING = 4;
+    private volatile long offset;
+    private boolean sampled;
+
+    synchronized void sample(long redisTimeMs, long sentAt, long receivedAt) {
+        long sample = redisTimeMs - (sentAt + receivedAt) / 2;
+        if (!sampled) {
+            offset = sample;
+            sampled = true;
+        } else if (receivedAt - sentAt <= MAX_SAMPLE_RTT_MS) {
+            offset += (sample - offset) / SMOOTHING;
+        }
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis() + offset;
+    }
+
+    long currentTimeSeconds() {
+        return currentTimeMillis() / 1000;
+    }
+
+    /**
+     * How far the Redis clock is ahead of the local one, in milliseconds.
+     */
+    long getOffset() {
+        return offset;
+    }
+}
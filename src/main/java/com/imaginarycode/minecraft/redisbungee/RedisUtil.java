@@ -1,75 +1,177 @@
 package com.imaginarycode.minecraft.redisbungee;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.imaginarycode.minecraft.redisbungee.util.LuaManager;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
+import com.imaginarycode.minecraft.redisbungee.util.UUIDUtil;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.connection.PendingConnection;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 @VisibleForTesting
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class RedisUtil {
-    protected static void createPlayer(ProxiedPlayer player, Pipeline pipeline, boolean fireEvent) {
-        createPlayer(player.getPendingConnection(), pipeline, fireEvent);
-        if (player.getServer() != null)
-            pipeline.hset("player:" + player.getUniqueId().toString(), "server", player.getServer().getInfo().getName());
+    private static final byte[] SERVER = SafeEncoder.encode("server");
+    private static final byte[] IP = SafeEncoder.encode("ip");
+    private static final byte[] PROXY = SafeEncoder.encode("proxy");
+    private static final byte[] ONLINE = SafeEncoder.encode("online");
+    private static final byte[] ONLINE_NOW = SafeEncoder.encode("0");
+    @Setter(AccessLevel.PACKAGE)
+    private static LuaManager.Script updateOnlineScript;
+
+    /**
+     * Queues the player's data on the pipeline. The returned change must be confirmed once the pipeline has been synced.
+     */
+    protected static OnlineChange createPlayer(ProxiedPlayer player, Pipeline pipeline, boolean fireEvent) {
+        OnlineChange change = createPlayer(player.getPendingConnection(), pipeline, fireEvent);
+        if (player.getServer() != null) {
+            String server = player.getServer().getInfo().getName();
+            pipeline.hset(RedisKeys.player(player.getUniqueId()), SERVER, SafeEncoder.encode(server));
+            pipeline.zadd(RedisKeys.serverNameIndex(RedisBungee.getConfiguration().getId(), server), 0, RedisKeys.nameIndexMember(player.getName()));
+        }
+        return change;
     }
 
-    protected static void createPlayer(PendingConnection connection, Pipeline pipeline, boolean fireEvent) {
-        Map<String, String> data = new HashMap<>(4);
-        data.put("online", "0");
-        data.put("ip", connection.getAddress().getAddress().getHostAddress());
-        data.put("proxy", RedisBungee.getConfiguration().getId());
+    protected static OnlineChange createPlayer(PendingConnection connection, Pipeline pipeline, boolean fireEvent) {
+        String proxyId = RedisBungee.getConfiguration().getId();
+        Map<byte[], byte[]> data = new HashMap<>(4);
+        data.put(ONLINE, ONLINE_NOW);
+        data.put(IP, SafeEncoder.encode(connection.getAddress().getAddress().getHostAddress()));
+        data.put(PROXY, SafeEncoder.encode(proxyId));
 
         if (!connection.isOnlineMode()) {
-            pipeline.sadd("proxy:" + RedisBungee.getApi().getServerId() + ":all", connection.getName().toLowerCase());
+            pipeline.sadd(RedisKeys.allNames(proxyId), SafeEncoder.encode(connection.getName().toLowerCase()));
         }
 
-        pipeline.sadd("proxy:" + RedisBungee.getApi().getServerId() + ":usersOnline", connection.getUniqueId().toString());
-        pipeline.hmset("player:" + connection.getUniqueId().toString(), data);
+        OnlineChange change = new OnlineChange(pipeline, proxyId, connection.getUniqueId(), true);
+        pipeline.zadd(RedisKeys.nameIndex(proxyId), 0, RedisKeys.nameIndexMember(connection.getName()));
+        pipeline.hmset(RedisKeys.player(connection.getUniqueId()), data);
 
         if (fireEvent) {
             pipeline.publish("redisbungee-data", RedisBungee.getGson().toJson(new DataManager.DataManagerMessage<>(
                     connection.getUniqueId(), DataManager.DataManagerMessage.Action.JOIN,
                     new DataManager.LoginPayload(connection.getAddress().getAddress()))));
         }
+        return change;
     }
 
     public static void cleanUpPlayer(String uuid, Jedis rsc, boolean online) {
         RedisBungeeAPI api = RedisBungee.getApi();
         String server = api.getServerId();
-        rsc.srem("proxy:" + server + ":usersOnline", uuid);
-        if (!online) {
-            String name = api.getNameFromUuid(UUID.fromString(uuid), false);
-            if (name != null) {
-                rsc.srem("proxy:" + server + ":all", name.toLowerCase());
+        UUID parsed = UUIDUtil.fromString(uuid);
+        byte[] playerKey = RedisKeys.player(parsed);
+        removeOnline(rsc, server, uuid);
+        // Looking the name up through the API would borrow a second connection.
+        String name = api.getUuidTranslator().getStoredName(parsed, rsc);
+        if (name != null) {
+            if (!online) {
+                rsc.srem(RedisKeys.allNames(server), SafeEncoder.encode(name.toLowerCase()));
+            }
+            rsc.zrem(RedisKeys.nameIndex(server), RedisKeys.nameIndexMember(name));
+            byte[] current = rsc.hget(playerKey, SERVER);
+            if (current != null) {
+                rsc.zrem(RedisKeys.serverNameIndex(server, SafeEncoder.encode(current)), RedisKeys.nameIndexMember(name));
             }
         }
-        rsc.hdel("player:" + uuid, "server", "ip", "proxy");
+        rsc.hdel(playerKey, SERVER, IP, PROXY);
         long timestamp = System.currentTimeMillis();
-        rsc.hset("player:" + uuid, "online", String.valueOf(timestamp));
+        rsc.hset(playerKey, ONLINE, SafeEncoder.encode(String.valueOf(timestamp)));
         rsc.publish("redisbungee-data", RedisBungee.getGson().toJson(new DataManager.DataManagerMessage<>(
-                UUID.fromString(uuid), DataManager.DataManagerMessage.Action.LEAVE,
+                parsed, DataManager.DataManagerMessage.Action.LEAVE,
                 new DataManager.LogoutPayload(timestamp))));
     }
 
-    public static void cleanUpPlayer(ProxiedPlayer player, Pipeline pipe) {
-        pipe.srem("proxy:" + RedisBungee.getApi().getServerId() + ":usersOnline", player.getUniqueId().toString());
+    /**
+     * Queues the removal of the player's data on the pipeline. The returned change must be confirmed once the pipeline
+     * has been synced.
+     */
+    public static OnlineChange cleanUpPlayer(ProxiedPlayer player, Pipeline pipe) {
+        String server = RedisBungee.getApi().getServerId();
+        byte[] playerKey = RedisKeys.player(player.getUniqueId());
+        OnlineChange change = new OnlineChange(pipe, server, player.getUniqueId(), false);
         if (!player.getPendingConnection().isOnlineMode()) {
-            pipe.srem("proxy:" + RedisBungee.getApi().getServerId() + ":all", player.getName().toLowerCase());
+            pipe.srem(RedisKeys.allNames(server), SafeEncoder.encode(player.getName().toLowerCase()));
         }
-        pipe.hdel("player:" + player, "server", "ip", "proxy");
+        pipe.zrem(RedisKeys.nameIndex(server), RedisKeys.nameIndexMember(player.getName()));
+        if (player.getServer() != null) {
+            pipe.zrem(RedisKeys.serverNameIndex(server, player.getServer().getInfo().getName()), RedisKeys.nameIndexMember(player.getName()));
+        }
+        pipe.hdel(playerKey, SERVER, IP, PROXY);
         long time = System.currentTimeMillis();
-        pipe.hset("player:" + player, "online", String.valueOf(time));
+        pipe.hset(playerKey, ONLINE, SafeEncoder.encode(String.valueOf(time)));
         pipe.publish("redisbungee-data", RedisBungee.getGson().toJson(new DataManager.DataManagerMessage<>(
                 player.getUniqueId(), DataManager.DataManagerMessage.Action.LEAVE,
                 new DataManager.LogoutPayload(time))));
+        return change;
+    }
+
+    /**
+     * Removes a player from a proxy's {@code usersOnline} set, and from its digest if they were in it.
+     */
+    static void removeOnline(Jedis rsc, String proxyId, String uuid) {
+        if (rsc.srem(RedisKeys.usersOnline(proxyId), SafeEncoder.encode(uuid)) == 1) {
+            rsc.decrBy(RedisKeys.usersOnlineDigest(proxyId), digest(UUIDUtil.fromString(uuid)));
+        }
+    }
+
+    /**
+     * A player's share of the {@code usersOnline} digest: the last 8 hex digits of their UUID, which
+     * {@code rebuild_online_digest.lua} reads straight from the set's members. The digest is the sum of these over
+     * the set.
+     */
+    static long digest(UUID uuid) {
+        return uuid.getLeastSignificantBits() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Adds a player to or removes them from a proxy's {@code usersOnline} set on a pipeline, with
+     * {@code update_online.lua} so the digest only changes along with the set. The script is run by its SHA-1, so call
+     * {@link #confirm(Jedis)} after the pipeline has been synced, to run it again if Redis didn't have it.
+     */
+    static final class OnlineChange {
+        private static final byte[] ADD = SafeEncoder.encode("1");
+        private static final byte[] REMOVE = SafeEncoder.encode("0");
+        private final List<byte[]> keys;
+        private final List<byte[]> args;
+        private final Response<Object> response;
+
+        private OnlineChange(Pipeline pipeline, String proxyId, UUID uuid, boolean add) {
+            keys = Arrays.asList(RedisKeys.usersOnline(proxyId), RedisKeys.usersOnlineDigest(proxyId));
+            args = Arrays.asList(add ? ADD : REMOVE, UUIDUtil.toAscii(uuid), SafeEncoder.encode(String.valueOf(digest(uuid))));
+            response = updateOnlineScript.queue(pipeline, keys, args);
+        }
+
+        void confirm(Jedis jedis) {
+            updateOnlineScript.get(jedis, response, keys, args);
+        }
+    }
+
+    /**
+     * Removes the name indexes of a proxy, for use when it has no players (anymore).
+     */
+    public static void clearNameIndexes(Jedis rsc, String proxyId) {
+        Collection<String> servers = ProxyServer.getInstance().getServers().keySet();
+        byte[][] keys = new byte[servers.size() + 1][];
+        int i = 0;
+        keys[i++] = RedisKeys.nameIndex(proxyId);
+        for (String server : servers) {
+            keys[i++] = RedisKeys.serverNameIndex(proxyId, server);
+        }
+        rsc.del(keys);
     }
 
     public static boolean canUseLua(String redisVersion) {
@@ -85,4 +187,33 @@ public class RedisUtil {
 
         return major >= 3 || (major == 2 && minor >= 6);
     }
+
+    public static boolean canUseLexRanges(String redisVersion) {
+        // ZRANGEBYLEX was added in Redis 2.8.9.
+        String[] args = redisVersion.split("\\.");
+
+        if (args.length < 3) {
+            return false;
+        }
+
+        int major = Integer.parseInt(args[0]);
+        int minor = Integer.parseInt(args[1]);
+        int patch = Integer.parseInt(args[2]);
+
+        return major >= 3 || (major == 2 && (minor > 8 || (minor == 8 && patch >= 9)));
+    }
+
+    public static boolean canUseTracking(String redisVersion) {
+        // CLIENT TRACKING was added in Redis 6.
+        String[] args = redisVersion.split("\\.");
+
+        return Integer.parseInt(args[0]) >= 6;
+    }
+
+    public static boolean canUseFunctions(String redisVersion) {
+        // FUNCTION LOAD and FCALL were added in Redis 7.
+        String[] args = redisVersion.split("\\.");
+
+        return Integer.parseInt(args[0]) >= 7;
+    }
 }
@@ -0,0 +1,88 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import com.google.common.collect.ImmutableMap;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Network-wide player counts for the server groups set up in {@code server-groups}, for use in ping responses.
+ * <p>
+ * The counts are refreshed in the background from the per-proxy, per-server name indexes, one ZCARD each on the
+ * heartbeat's pipeline, so reading them never touches Redis.
+ */
+class ServerGroupCounts {
+    private final RedisBungee plugin;
+    private final Map<String, List<String>> groups;
+    private final Map<String, String> groupByServer = new HashMap<>();
+    private volatile Map<String, Integer> counts = Collections.emptyMap();
+
+    ServerGroupCounts(RedisBungee plugin, Map<String, List<String>> groups) {
+        this.plugin = plugin;
+        this.groups = groups;
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            for (String server : group.getValue()) {
+                groupByServer.put(server, group.getKey());
+            }
+        }
+    }
+
+    /**
+     * The number of players in the group, or -1 if there is no such group.
+     */
+    int getGroupCount(String group) {
+        Integer count = counts.get(group);
+        return count == null ? -1 : count;
+    }
+
+    /**
+     * The number of players in the group the server belongs to, or -1 if it isn't in any group.
+     */
+    int getCountForServer(String server) {
+        String group = groupByServer.get(server);
+        return group == null ? -1 : getGroupCount(group);
+    }
+
+    /**
+     * Queues the commands for a refresh. Once the pipeline has been synced, pass what this returns to
+     * {@link #update(Map)}.
+     */
+    Map<String, List<Response<Long>>> queue(Pipeline pipeline) {
+        if (groups.isEmpty())
+            return Collections.emptyMap();
+
+        List<String> proxies = plugin.getServerIds();
+        Map<String, List<Response<Long>>> responses = new HashMap<>();
+        for (String server : groupByServer.keySet()) {
+            List<Response<Long>> perProxy = new ArrayList<>(proxies.size());
+            for (String proxy : proxies) {
+                perProxy.add(pipeline.zcard(RedisKeys.serverNameIndex(proxy, server)));
+            }
+            responses.put(server, perProxy);
+        }
+        return responses;
+    }
+
+    void update(Map<String, List<Response<Long>>> responses) {
+        if (groups.isEmpty())
+            return;
+
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            long total = 0;
+            for (String server : group.getValue()) {
+                for (Response<Long> count : responses.get(server)) {
+                    total += count.get();
+                }
+            }
+            builder.put(group.getKey(), (int) total);
+        }
+        counts = builder.build();
+    }
+}
@@ -0,0 +1,125 @@
+package com.imaginarycode.minecraft.redisbungee;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Saves the UUID cache and the last online times of offline players to a file in the plugin folder, and loads it back
+ * after a restart, so a freshly started proxy doesn't have to fetch everything it knew a moment ago from Redis and
+ * Mojang.
+ * <p>
+ * The file holds a header (magic, version and the time it was written) followed by two sections, UUID cache entries
+ * and player records, each a record count and length-prefixed records. It is read through a memory mapping, so
+ * records are only copied as they are decoded.
+ */
+@RequiredArgsConstructor
+class WarmCacheSnapshot implements Runnable {
+    private static final int MAGIC = 0x52425743; // "RBWC"
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 4 + 1 + 8;
+    // Snapshots older than the UUID cache entries in them are of no use.
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(3);
+    private final RedisBungee plugin;
+    private final File file;
+
+    @Override
+    public void run() {
+        save();
+    }
+
+    /**
+     * Synchronized, as the periodic save may still be writing the temporary file when the plugin is disabled.
+     */
+    synchronized void save() {
+        List<byte[]> uuids = plugin.getUuidTranslator().snapshot();
+        List<byte[]> players = plugin.getDataManager().snapshot();
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + sectionLength(uuids) + sectionLength(players));
+        buffer.putInt(MAGIC).put(VERSION).putLong(System.currentTimeMillis());
+        putSection(buffer, uuids);
+        putSection(buffer, players);
+        buffer.flip();
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Unable to save the warm cache to " + file.getName(), e);
+        }
+    }
+
+    void load() {
+        if (!file.isFile())
+            return;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                plugin.getLogger().warning("Ignoring " + file.getName() + ", it was not written by this version of RedisBungee.");
+                return;
+            }
+            long writtenAt = buffer.getLong();
+            if (System.currentTimeMillis() - writtenAt > MAX_AGE)
+                return;
+
+            List<ByteBuffer> uuids = readSection(buffer);
+            List<ByteBuffer> players = readSection(buffer);
+            int restoredUuids = plugin.getUuidTranslator().restore(uuids);
+            int restoredPlayers = plugin.getDataManager().restore(players, writtenAt);
+            plugin.getLogger().info("Restored " + restoredUuids + " UUID cache entries and " + restoredPlayers + " player records from " + file.getName() + ".");
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "Unable to load the warm cache from " + file.getName(), e);
+        }
+    }
+
+    private static int sectionLength(List<byte[]> records) {
+        int length = 4;
+        for (byte[] record : records) {
+            length += 4 + record.length;
+        }
+        return length;
+    }
+
+    private static void putSection(ByteBuffer buffer, List<byte[]> records) {
+        buffer.putInt(records.size());
+        for (byte[] record : records) {
+            buffer.putInt(record.length).put(record);
+        }
+    }
+
+    private static List<ByteBuffer> readSection(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0)
+            throw new IllegalArgumentException("Corrupt warm cache section");
+        List<ByteBuffer> records = new ArrayList<>(Math.min(count, buffer.remaining() / 4));
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+                throw new IllegalArgumentException("Truncated warm cache record");
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            records.add(record);
+            buffer.position(buffer.position() + length);
+        }
+        return records;
+    }
+}
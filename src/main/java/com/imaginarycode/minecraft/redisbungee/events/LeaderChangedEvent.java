@@ -0,0 +1,31 @@
+package com.imaginarycode.minecraft.redisbungee.events;
+
+import lombok.ToString;
+import net.md_5.bungee.api.plugin.Event;
+
+/**
+ * This event is sent when another proxy becomes the leader of the network, as seen from this proxy. Use
+ * {@link com.imaginarycode.minecraft.redisbungee.RedisBungeeAPI#isLeader()} to find out whether it is this one.
+ * <p>
+ * This event is fired asynchronously.
+ *
+ * @since 0.4
+ */
+@ToString
+public class LeaderChangedEvent extends Event {
+    private final String leader;
+    private final long fencingToken;
+
+    public LeaderChangedEvent(String leader, long fencingToken) {
+        this.leader = leader;
+        this.fencingToken = fencingToken;
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+}
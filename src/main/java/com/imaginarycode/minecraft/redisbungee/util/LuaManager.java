@@ -1,44 +1,328 @@
 package com.imaginarycode.minecraft.redisbungee.util;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.RedisOutputStream;
+import redis.clients.util.SafeEncoder;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 
+/**
+ * Keeps track of the Lua scripts bundled with RedisBungee, and runs them by their SHA-1 only.
+ * <p>
+ * Scripts are registered with {@link #createScript(String)} and sent to Redis together by {@link #loadAll(Jedis)},
+ * which skips the ones Redis already has. When Redis loses them, e.g. after a restart or a failover, the first call to
+ * run into NOSCRIPT loads every missing script again and retries, so script bodies never go out with a call.
+ * <p>
+ * On Redis 7 and newer the scripts are also loaded as one function library and called with FCALL, so they survive
+ * restarts and are replicated. The library and function names include a hash of their code, so proxies running
+ * different versions can share a Redis server.
+ */
 @RequiredArgsConstructor
 public class LuaManager {
+    private static final String LIBRARY_PREFIX = "redisbungee_";
+    private static final byte[] FUNCTION = SafeEncoder.encode("FUNCTION");
+    private static final byte[] FCALL = SafeEncoder.encode("FCALL");
+    private static final Field OUTPUT_STREAM = findOutputStream();
+    private static final Method WRITE_COMMAND = findWriteCommand();
     private final RedisBungee plugin;
+    private final Map<String, Script> scripts = new LinkedHashMap<>();
+    private boolean functionsSupported;
+    private volatile boolean useFunctions;
 
-    public Script createScript(String script) {
-        try (Jedis jedis = plugin.getPool().getResource()) {
-            String hash = jedis.scriptLoad(script);
-            return new Script(script, hash);
+    /**
+     * Registers the bundled script {@code lua/<name>.lua}. It is sent to Redis by the next {@link #loadAll(Jedis)}.
+     */
+    public synchronized Script createScript(String name) {
+        String source = IOUtil.readInputStreamAsString(plugin.getResourceAsStream("lua/" + name + ".lua"));
+        Script script = new Script(name, source, Hashing.sha1().hashString(source, StandardCharsets.UTF_8).toString());
+        scripts.put(name, script);
+        return script;
+    }
+
+    /**
+     * Makes {@link #loadAll(Jedis)} load the scripts as a function library too. Only call this for Redis 7 and newer.
+     */
+    public synchronized void enableFunctions() {
+        functionsSupported = OUTPUT_STREAM != null && WRITE_COMMAND != null;
+    }
+
+    /**
+     * Loads the registered scripts Redis doesn't have yet, and the function library if it is enabled.
+     *
+     * @return how many scripts were loaded
+     */
+    public synchronized int loadAll(Jedis jedis) {
+        List<Script> all = new ArrayList<>(scripts.values());
+        String[] hashes = new String[all.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = all.get(i).hashed;
+        }
+
+        List<Boolean> exists = jedis.scriptExists(hashes);
+        int loaded = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (!exists.get(i)) {
+                jedis.scriptLoad(all.get(i).script);
+                loaded++;
+            }
+        }
+
+        if (functionsSupported) {
+            useFunctions = loadLibrary(jedis, all);
+        }
+        return loaded;
+    }
+
+    private boolean loadLibrary(Jedis jedis, List<Script> all) {
+        StringBuilder functions = new StringBuilder();
+        for (Script script : all) {
+            functions.append("redis.register_function('").append(script.functionName).append("', function(KEYS, ARGV)\n")
+                    .append(script.script).append("\nend)\n");
+        }
+        String body = functions.toString();
+        String library = "#!lua name=" + LIBRARY_PREFIX + Hashing.sha1().hashString(body, StandardCharsets.UTF_8).toString().substring(0, 12)
+                + "\n" + body;
+
+        try {
+            send(jedis, FUNCTION, SafeEncoder.encode("LOAD"), SafeEncoder.encode(library));
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("already exists")) {
+                plugin.getLogger().log(Level.WARNING, "Unable to load the RedisBungee function library, falling back to EVALSHA", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized Collection<Script> getScripts() {
+        return ImmutableList.copyOf(scripts.values());
+    }
+
+    /**
+     * Whether scripts are currently called with FCALL.
+     */
+    public boolean isUsingFunctions() {
+        return useFunctions;
+    }
+
+    private static Field findOutputStream() {
+        try {
+            Field field = Connection.class.getDeclaredField("outputStream");
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Method findWriteCommand() {
+        try {
+            Method method = Protocol.class.getDeclaredMethod("sendCommand", RedisOutputStream.class, byte[].class, byte[][].class);
+            method.setAccessible(true);
+            return method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Jedis 2.x has no FUNCTION or FCALL, and can only send the commands in {@link Protocol.Command}. Pooled
+     * connections can't be swapped for a subclass like the one in {@code KeyTrackingListener} either, so this writes
+     * the command to the connection's stream the way Jedis does internally, and reads the reply as usual.
+     */
+    private static Object send(Jedis jedis, byte[] command, byte[]... args) {
+        Client client = jedis.getClient();
+        client.connect();
+        try {
+            WRITE_COMMAND.invoke(null, OUTPUT_STREAM.get(client), command, args);
+        } catch (IllegalAccessException e) {
+            throw new JedisException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof JedisConnectionException) {
+                // Jedis only marks a connection as broken when it fails to read, so don't leave a half-written one.
+                client.disconnect();
+                throw (JedisConnectionException) e.getCause();
+            }
+            throw new JedisException(e.getCause());
+        }
+        return client.getOne();
+    }
+
+    private static byte[] toBytes(Object value) {
+        return value instanceof byte[] ? (byte[]) value : SafeEncoder.encode((String) value);
+    }
+
+    /**
+     * Turns bulk replies into strings, the way Jedis does for EVALSHA.
+     */
+    private static Object decode(Object reply) {
+        if (reply instanceof byte[])
+            return SafeEncoder.encode((byte[]) reply);
+        if (reply instanceof List) {
+            List<Object> decoded = new ArrayList<>(((List<?>) reply).size());
+            for (Object element : (List<?>) reply) {
+                decoded.add(decode(element));
+            }
+            return decoded;
         }
+        return reply;
+    }
+
+    private static boolean isMissing(JedisDataException e) {
+        String message = e.getMessage();
+        return message != null && (message.startsWith("NOSCRIPT") || message.contains("Function not found"));
     }
 
-    @RequiredArgsConstructor
     public class Script {
+        @Getter
+        private final String name;
         private final String script;
         private final String hashed;
+        private final String functionName;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        Script(String name, String script, String hashed) {
+            this.name = name;
+            this.script = script;
+            this.hashed = hashed;
+            this.functionName = LIBRARY_PREFIX + name + "_" + hashed.substring(0, 12);
+        }
 
         public Object eval(List<String> keys, List<String> args) {
-            Object data;
+            try (Jedis jedis = plugin.getPool().getResource()) {
+                return eval(jedis, keys, args);
+            }
+        }
 
+        /**
+         * Runs the script on a connection the caller already holds.
+         */
+        public Object eval(Jedis jedis, List<String> keys, List<String> args) {
+            return run(jedis, keys, args, false);
+        }
+
+        /**
+         * Runs the script with binary keys and arguments. Bulk replies are returned as byte arrays instead of being
+         * decoded as UTF-8, for scripts that return packed binary data.
+         */
+        public Object evalBinary(List<byte[]> keys, List<byte[]> args) {
             try (Jedis jedis = plugin.getPool().getResource()) {
+                return evalBinary(jedis, keys, args);
+            }
+        }
+
+        public Object evalBinary(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+            return run(jedis, keys, args, true);
+        }
+
+        /**
+         * Queues a call on a pipeline, with EVALSHA. Read the reply with {@link #get(Jedis, Response, List, List)}
+         * once the pipeline has been synced. Pipelined calls aren't included in the timings.
+         * <p>
+         * Keys and arguments are binary, since the string form of EVALSHA on a pipeline only handles bulk string
+         * replies. The reply is decoded like the one of {@link #eval(Jedis, List, List)}.
+         */
+        public Response<Object> queue(Pipeline pipeline, List<byte[]> keys, List<byte[]> args) {
+            return pipeline.evalsha(SafeEncoder.encode(hashed), keys, args);
+        }
+
+        /**
+         * Reads the reply of a call queued with {@link #queue(Pipeline, List, List)}. If Redis didn't have the script,
+         * the scripts are loaded again and this one is run directly. The function library can outlive the script cache,
+         * so this has to reload the scripts itself rather than leave it to a call that may go through FCALL.
+         */
+        public Object get(Jedis jedis, Response<Object> response, List<byte[]> keys, List<byte[]> args) {
+            try {
+                return decode(response.get());
+            } catch (JedisDataException e) {
+                if (!isMissing(e))
+                    throw e;
+                reload(jedis);
+                return decode(evalBinary(jedis, keys, args));
+            }
+        }
+
+        private Object run(Jedis jedis, List<?> keys, List<?> args, boolean binary) {
+            long start = System.nanoTime();
+            try {
                 try {
-                    data = jedis.evalsha(hashed, keys, args);
+                    return call(jedis, keys, args, binary);
                 } catch (JedisDataException e) {
-                    if (e.getMessage().startsWith("NOSCRIPT")) {
-                        data = jedis.eval(script, keys, args);
-                    } else {
+                    if (!isMissing(e))
                         throw e;
-                    }
+                    reload(jedis);
+                    return call(jedis, keys, args, binary);
+                }
+            } finally {
+                calls.incrementAndGet();
+                totalNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        private void reload(Jedis jedis) {
+            int loaded = loadAll(jedis);
+            if (loaded > 0) {
+                plugin.getLogger().info("Redis lost its scripts, loaded " + loaded + " of them again.");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object call(Jedis jedis, List<?> keys, List<?> args, boolean binary) {
+            if (useFunctions) {
+                byte[][] raw = new byte[2 + keys.size() + args.size()][];
+                raw[0] = SafeEncoder.encode(functionName);
+                raw[1] = SafeEncoder.encode(String.valueOf(keys.size()));
+                int i = 2;
+                for (Object key : keys) {
+                    raw[i++] = toBytes(key);
+                }
+                for (Object arg : args) {
+                    raw[i++] = toBytes(arg);
                 }
+                Object reply = send(jedis, FCALL, raw);
+                return binary ? reply : decode(reply);
             }
+            if (binary) {
+                return jedis.evalsha(SafeEncoder.encode(hashed), (List<byte[]>) keys, (List<byte[]>) args);
+            }
+            return jedis.evalsha(hashed, (List<String>) keys, (List<String>) args);
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
 
-            return data;
+        /**
+         * The average time a call took, including the round trip, in milliseconds.
+         */
+        public double getAverageMillis() {
+            long count = calls.get();
+            return count == 0 ? 0 : (double) totalNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
         }
     }
 }
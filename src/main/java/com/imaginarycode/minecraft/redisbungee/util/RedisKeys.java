@@ -0,0 +1,179 @@
+package com.imaginarycode.minecraft.redisbungee.util;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import redis.clients.util.SafeEncoder;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds the Redis keys RedisBungee uses as bytes, for use with the binary Jedis commands. Per-proxy keys are built
+ * once and reused, and player keys are written straight into a byte array without going through a string.
+ * <p>
+ * The returned arrays are shared and must not be modified.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class RedisKeys {
+    /**
+     * How many hashes the UUID cache is split over. This must stay the same across proxies and versions.
+     */
+    public static final int UUID_CACHE_SHARDS = 256;
+    private static final byte[] PLAYER_PREFIX = SafeEncoder.encode("player:");
+    private static final byte[] LEGACY_UUID_CACHE = SafeEncoder.encode("uuid-cache");
+    private static final byte[][] UUID_CACHE = new byte[UUID_CACHE_SHARDS][];
+    private static final ConcurrentMap<String, byte[]> USERS_ONLINE = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, byte[]> USERS_ONLINE_DIGEST = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, byte[]> ALL_NAMES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, byte[]> NAME_INDEX = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, byte[]> LEASE = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, byte[]> CLEANUP_CLAIM = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < UUID_CACHE_SHARDS; i++) {
+            UUID_CACHE[i] = SafeEncoder.encode("uuid-cache:" + i);
+        }
+    }
+
+    /**
+     * {@code player:<uuid>}, the hash holding a player's server, proxy, IP and last online time.
+     */
+    public static byte[] player(UUID uuid) {
+        byte[] key = new byte[PLAYER_PREFIX.length + UUIDUtil.DASHED_LENGTH];
+        System.arraycopy(PLAYER_PREFIX, 0, key, 0, PLAYER_PREFIX.length);
+        UUIDUtil.writeAscii(uuid, key, PLAYER_PREFIX.length);
+        return key;
+    }
+
+    /**
+     * {@code proxy:<id>:usersOnline}, the set of UUIDs of players on a proxy.
+     */
+    public static byte[] usersOnline(String proxyId) {
+        byte[] key = USERS_ONLINE.get(proxyId);
+        if (key == null) {
+            key = SafeEncoder.encode("proxy:" + proxyId + ":usersOnline");
+            USERS_ONLINE.putIfAbsent(proxyId, key);
+        }
+        return key;
+    }
+
+    /**
+     * {@code proxy:<id>:usersOnlineDigest}, the sum of {@code RedisUtil.digest} over {@link #usersOnline(String)}, kept
+     * up to date as players are added and removed.
+     */
+    public static byte[] usersOnlineDigest(String proxyId) {
+        byte[] key = USERS_ONLINE_DIGEST.get(proxyId);
+        if (key == null) {
+            key = SafeEncoder.encode("proxy:" + proxyId + ":usersOnlineDigest");
+            USERS_ONLINE_DIGEST.putIfAbsent(proxyId, key);
+        }
+        return key;
+    }
+
+    /**
+     * {@code proxy:<id>:all}, the set of lower-cased names of players on an offline-mode proxy.
+     */
+    public static byte[] allNames(String proxyId) {
+        byte[] key = ALL_NAMES.get(proxyId);
+        if (key == null) {
+            key = SafeEncoder.encode("proxy:" + proxyId + ":all");
+            ALL_NAMES.putIfAbsent(proxyId, key);
+        }
+        return key;
+    }
+
+    /**
+     * {@code proxy:<id>:nameIndex}, a sorted set of {@code <lower-cased name>:<name>} for every player on a proxy, all
+     * with score 0 so it can be searched by prefix with ZRANGEBYLEX.
+     */
+    public static byte[] nameIndex(String proxyId) {
+        byte[] key = NAME_INDEX.get(proxyId);
+        if (key == null) {
+            key = SafeEncoder.encode("proxy:" + proxyId + ":nameIndex");
+            NAME_INDEX.putIfAbsent(proxyId, key);
+        }
+        return key;
+    }
+
+    /**
+     * {@code proxy:<id>:lease}, which a proxy's heartbeat keeps from expiring while it is alive.
+     */
+    public static byte[] lease(String proxyId) {
+        byte[] key = LEASE.get(proxyId);
+        if (key == null) {
+            key = SafeEncoder.encode("proxy:" + proxyId + ":lease");
+            LEASE.putIfAbsent(proxyId, key);
+        }
+        return key;
+    }
+
+    /**
+     * The proxy ID in a {@link #lease(String)} key, or null if the key isn't one.
+     */
+    public static String proxyIdOfLease(String key) {
+        if (!key.startsWith("proxy:") || !key.endsWith(":lease") || key.length() <= "proxy::lease".length())
+            return null;
+        return key.substring("proxy:".length(), key.length() - ":lease".length());
+    }
+
+    /**
+     * {@code proxy:<id>:cleanup}, held by whoever is cleaning up after a proxy.
+     */
+    public static byte[] cleanupClaim(String proxyId) {
+        byte[] key = CLEANUP_CLAIM.get(proxyId);
+        if (key == null) {
+            key = SafeEncoder.encode("proxy:" + proxyId + ":cleanup");
+            CLEANUP_CLAIM.putIfAbsent(proxyId, key);
+        }
+        return key;
+    }
+
+    /**
+     * {@code proxy:<id>:server:<server>:names}, the same as {@link #nameIndex(String)} but only for the players on one
+     * server.
+     */
+    public static byte[] serverNameIndex(String proxyId, String server) {
+        return SafeEncoder.encode("proxy:" + proxyId + ":server:" + server + ":names");
+    }
+
+    /**
+     * The member a player is stored as in {@link #nameIndex(String)}.
+     */
+    public static byte[] nameIndexMember(String name) {
+        return SafeEncoder.encode(name.toLowerCase() + ':' + name);
+    }
+
+    /**
+     * {@code uuid-cache:<shard>}, one of the hashes the UUID cache is split over.
+     */
+    public static byte[] uuidCacheShard(int shard) {
+        return UUID_CACHE[shard];
+    }
+
+    /**
+     * The {@link #uuidCacheShard(int)} a lower-cased name or a UUID is stored in.
+     */
+    public static byte[] uuidCache(String field) {
+        return UUID_CACHE[(field.hashCode() & Integer.MAX_VALUE) % UUID_CACHE_SHARDS];
+    }
+
+    /**
+     * The same as {@link #uuidCache(String)}, for a field given as ASCII bytes such as {@link UUIDUtil#toAscii(UUID)}
+     * returns. The hash is worked out from the bytes just like {@link String#hashCode()} does from the characters.
+     */
+    public static byte[] uuidCache(byte[] asciiField) {
+        int hash = 0;
+        for (byte b : asciiField) {
+            hash = 31 * hash + b;
+        }
+        return UUID_CACHE[(hash & Integer.MAX_VALUE) % UUID_CACHE_SHARDS];
+    }
+
+    /**
+     * {@code uuid-cache}, the single hash older versions kept the UUID cache in.
+     */
+    public static byte[] legacyUuidCache() {
+        return LEGACY_UUID_CACHE;
+    }
+}
@@ -0,0 +1,185 @@
+package com.imaginarycode.minecraft.redisbungee.util;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Parses and formats UUIDs without the intermediate strings, arrays and regular expressions
+ * {@link UUID#fromString(String)} and friends go through. Both the dashed form and the undashed form Mojang uses are
+ * supported.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class UUIDUtil {
+    public static final int DASHED_LENGTH = 36;
+    public static final int MOJANG_LENGTH = 32;
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    /**
+     * Checks whether the string is a UUID in dashed form.
+     */
+    public static boolean isUuid(CharSequence s) {
+        return s.length() == DASHED_LENGTH && isHex(s, true);
+    }
+
+    /**
+     * Checks whether the string is a UUID in Mojang's undashed form.
+     */
+    public static boolean isMojangUuid(CharSequence s) {
+        return s.length() == MOJANG_LENGTH && isHex(s, false);
+    }
+
+    /**
+     * Parses a UUID in either dashed or undashed form.
+     *
+     * @throws IllegalArgumentException if the string isn't a UUID
+     */
+    public static UUID fromString(CharSequence s) {
+        int length = s.length();
+        if (length == DASHED_LENGTH) {
+            if (s.charAt(8) != '-' || s.charAt(13) != '-' || s.charAt(18) != '-' || s.charAt(23) != '-')
+                throw new IllegalArgumentException("Invalid UUID: " + s);
+            long msb = hex(s, 0, 8) << 32 | hex(s, 9, 13) << 16 | hex(s, 14, 18);
+            long lsb = hex(s, 19, 23) << 48 | hex(s, 24, 36);
+            return new UUID(msb, lsb);
+        }
+        if (length == MOJANG_LENGTH)
+            return new UUID(hex(s, 0, 16), hex(s, 16, 32));
+        throw new IllegalArgumentException("Invalid UUID: " + s);
+    }
+
+    /**
+     * Parses a UUID in either dashed or undashed form from its ASCII bytes, as returned by the binary Jedis commands.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a UUID
+     */
+    public static UUID fromAscii(byte[] b) {
+        return fromAscii(b, 0, b.length);
+    }
+
+    /**
+     * Parses a UUID in either dashed or undashed form from {@code length} ASCII bytes starting at {@code offset}.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a UUID
+     */
+    public static UUID fromAscii(byte[] b, int offset, int length) {
+        if (length == DASHED_LENGTH) {
+            if (b[offset + 8] != '-' || b[offset + 13] != '-' || b[offset + 18] != '-' || b[offset + 23] != '-')
+                throw new IllegalArgumentException("Invalid UUID");
+            long msb = hex(b, offset, 8) << 32 | hex(b, offset + 9, 4) << 16 | hex(b, offset + 14, 4);
+            long lsb = hex(b, offset + 19, 4) << 48 | hex(b, offset + 24, 12);
+            return new UUID(msb, lsb);
+        }
+        if (length == MOJANG_LENGTH)
+            return new UUID(hex(b, offset, 16), hex(b, offset + 16, 16));
+        throw new IllegalArgumentException("Invalid UUID of " + length + " bytes");
+    }
+
+    /**
+     * Writes the dashed form of the UUID as 36 ASCII bytes.
+     */
+    public static void writeAscii(UUID uuid, byte[] dst, int offset) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        writeHex(msb >>> 32, dst, offset, 8);
+        dst[offset + 8] = '-';
+        writeHex(msb >>> 16, dst, offset + 9, 4);
+        dst[offset + 13] = '-';
+        writeHex(msb, dst, offset + 14, 4);
+        dst[offset + 18] = '-';
+        writeHex(lsb >>> 48, dst, offset + 19, 4);
+        dst[offset + 23] = '-';
+        writeHex(lsb, dst, offset + 24, 12);
+    }
+
+    /**
+     * Returns the dashed form of the UUID as ASCII bytes.
+     */
+    public static byte[] toAscii(UUID uuid) {
+        byte[] b = new byte[DASHED_LENGTH];
+        writeAscii(uuid, b, 0);
+        return b;
+    }
+
+    /**
+     * Returns the undashed form of the UUID that Mojang's API uses.
+     */
+    public static String toMojangString(UUID uuid) {
+        char[] c = new char[MOJANG_LENGTH];
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 16; i++) {
+            int shift = (15 - i) * 4;
+            c[i] = (char) HEX_DIGITS[(int) (msb >>> shift) & 0xF];
+            c[16 + i] = (char) HEX_DIGITS[(int) (lsb >>> shift) & 0xF];
+        }
+        return new String(c);
+    }
+
+    private static long hex(CharSequence s, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = digit(s.charAt(i));
+            if (digit < 0)
+                throw new IllegalArgumentException("Invalid UUID: " + s);
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static long hex(byte[] b, int offset, int digits) {
+        long value = 0;
+        for (int i = offset; i < offset + digits; i++) {
+            int digit = digit(b[i]);
+            if (digit < 0)
+                throw new IllegalArgumentException("Invalid UUID");
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Writes the lowest {@code digits} nibbles of {@code value} as hex.
+     */
+    private static void writeHex(long value, byte[] dst, int offset, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dst[i] = HEX_DIGITS[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+
+    private static boolean isHex(CharSequence s, boolean dashed) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (dashed && isDashPosition(i)) {
+                if (c != '-')
+                    return false;
+            } else if (digit(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDashPosition(int i) {
+        return i == 8 || i == 13 || i == 18 || i == 23;
+    }
+
+    private static int digit(int c) {
+        return c >= 0 && c < 128 ? HEX_VALUES[c] : -1;
+    }
+}
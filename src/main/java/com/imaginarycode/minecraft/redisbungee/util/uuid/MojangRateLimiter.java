@@ -0,0 +1,114 @@
+package com.imaginarycode.minecraft.redisbungee.util.uuid;
+
+import com.google.common.collect.ImmutableList;
+import com.imaginarycode.minecraft.redisbungee.util.LuaManager;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A token bucket kept in Redis that every proxy draws from before talking to Mojang, so that the whole network stays
+ * within Mojang's per-IP limit.
+ * <p>
+ * {@link Priority#BACKGROUND} requests must leave part of the bucket untouched, so on-demand lookups still get through
+ * while background work is being throttled. If Redis can't be asked, requests are let through.
+ */
+public class MojangRateLimiter {
+    private static final String BUCKET_KEY = "mojang-rate-limit";
+    // The share of the bucket background requests leave for interactive ones.
+    private static final double BACKGROUND_RESERVE = 0.25;
+    private final LuaManager.Script script;
+    private final Logger logger;
+    private final int capacity;
+    private final String ratePerMs;
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public MojangRateLimiter(LuaManager.Script script, Logger logger, int requestsPerMinute) {
+        this.script = script;
+        this.logger = logger;
+        this.capacity = requestsPerMinute;
+        this.ratePerMs = String.valueOf(requestsPerMinute / 60000.0);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param priority the priority of the request
+     * @return 0 if the request may go ahead, otherwise roughly how many milliseconds to wait before trying again
+     */
+    public long tryAcquire(Priority priority) {
+        long wait;
+        try {
+            Long result = (Long) script.eval(ImmutableList.of(BUCKET_KEY), ImmutableList.of(
+                    String.valueOf(capacity), ratePerMs, String.valueOf(reserve(priority)), String.valueOf(System.currentTimeMillis())));
+            wait = result;
+        } catch (JedisException e) {
+            logger.log(Level.WARNING, "Unable to check the Mojang rate limit, allowing the request", e);
+            wait = 0;
+        }
+
+        if (wait == 0) {
+            granted.incrementAndGet();
+        } else {
+            throttled.incrementAndGet();
+        }
+        return wait;
+    }
+
+    /**
+     * Blocks until a token has been taken.
+     *
+     * @param priority  the priority of the request
+     * @param timeoutMs how long to wait at most
+     * @throws TimeoutException if no token became available in time
+     */
+    public void acquire(Priority priority, long timeoutMs) throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        waiting.incrementAndGet();
+        try {
+            long wait;
+            while ((wait = tryAcquire(priority)) > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException("Mojang rate limit exceeded");
+                }
+                Thread.sleep(Math.min(wait, remaining));
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private int reserve(Priority priority) {
+        return priority == Priority.BACKGROUND ? (int) Math.ceil(capacity * BACKGROUND_RESERVE) : 0;
+    }
+
+    public long getGrantedCount() {
+        return granted.get();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public enum Priority {
+        /**
+         * Lookups someone is waiting on right now.
+         */
+        INTERACTIVE,
+        /**
+         * Refreshes and other work that can be put off.
+         */
+        BACKGROUND
+    }
+}
@@ -2,6 +2,7 @@ package com.imaginarycode.minecraft.redisbungee.util.uuid;
 
 import com.google.gson.reflect.TypeToken;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
+import com.imaginarycode.minecraft.redisbungee.util.UUIDUtil;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.ResponseBody;
@@ -14,14 +15,30 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeoutException;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class NameFetcher {
+    private static final long RATE_LIMIT_TIMEOUT_MS = 10000;
     @Setter
     private static OkHttpClient httpClient;
+    @Setter
+    private static MojangRateLimiter rateLimiter;
 
     public static List<String> nameHistoryFromUuid(UUID uuid) throws IOException {
-        String url = "https://api.mojang.com/user/profiles/" + uuid.toString().replace("-", "") + "/names";
+        return nameHistoryFromUuid(uuid, MojangRateLimiter.Priority.INTERACTIVE);
+    }
+
+    public static List<String> nameHistoryFromUuid(UUID uuid, MojangRateLimiter.Priority priority) throws IOException {
+        if (rateLimiter != null) {
+            try {
+                rateLimiter.acquire(priority, RATE_LIMIT_TIMEOUT_MS);
+            } catch (InterruptedException | TimeoutException e) {
+                throw new IOException("Unable to look up " + uuid + " within the Mojang rate limit", e);
+            }
+        }
+
+        String url = "https://api.mojang.com/user/profiles/" + UUIDUtil.toMojangString(uuid) + "/names";
         Request request = new Request.Builder().url(url).get().build();
         ResponseBody body = httpClient.newCall(request).execute().body();
         String response = body.string();
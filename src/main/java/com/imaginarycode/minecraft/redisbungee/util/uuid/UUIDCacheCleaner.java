@@ -0,0 +1,131 @@
+package com.imaginarycode.minecraft.redisbungee.util.uuid;
+
+import com.imaginarycode.minecraft.redisbungee.RedisBungee;
+import com.imaginarycode.minecraft.redisbungee.util.LuaManager;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
+import lombok.RequiredArgsConstructor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Incrementally removes expired entries from the sharded UUID cache, moves entries left in the old single
+ * {@code uuid-cache} hash into the shards, and rewrites entries still stored as JSON in the compact encoding.
+ * <p>
+ * Each run examines a bounded number of fields with HSCAN, so no single command touches a large hash. Only the leader
+ * of the network does any work, and the scan position is kept in Redis so another proxy can pick up where the previous
+ * one stopped.
+ * <p>
+ * Changes are made by {@code clean_uuid_cache.lua}, and only to fields that still hold what the scan returned, so an
+ * entry a proxy refreshed in the meantime is never removed or overwritten.
+ */
+@RequiredArgsConstructor
+public class UUIDCacheCleaner implements Runnable {
+    private static final String STATE_KEY = "uuid-cache-cleaner:state";
+    private static final int FIELDS_PER_RUN = 2000;
+    private static final int SCANS_PER_RUN = 64;
+    private static final ScanParams SCAN_PARAMS = new ScanParams().count(100);
+    // The shard number used for the old unsharded hash while it still exists.
+    private static final int LEGACY_SHARD = -1;
+    private static final byte[] DELETE = SafeEncoder.encode("del");
+    private static final byte[] MOVE = SafeEncoder.encode("move");
+    private static final byte[] REWRITE = SafeEncoder.encode("set");
+    private static final byte[] NONE = new byte[0];
+    private final RedisBungee plugin;
+    private final UUIDTranslator translator;
+    private final LuaManager.Script cleanScript;
+
+    @Override
+    public void run() {
+        try (Jedis jedis = plugin.getPool().getResource()) {
+            if (translator.isLegacyCachePresent() && !jedis.exists(RedisKeys.legacyUuidCache())) {
+                translator.legacyCacheDrained();
+            }
+
+            if (!RedisBungee.getApi().isLeader()) {
+                return;
+            }
+
+            clean(jedis);
+        } catch (JedisException e) {
+            plugin.getLogger().log(Level.SEVERE, "Unable to clean the UUID cache", e);
+        }
+    }
+
+    private void clean(Jedis jedis) {
+        List<String> state = jedis.hmget(STATE_KEY, "shard", "cursor");
+        int shard = state.get(0) == null ? firstShard() : Integer.parseInt(state.get(0));
+        String cursor = state.get(1) == null ? ScanParams.SCAN_POINTER_START : state.get(1);
+        if (shard == LEGACY_SHARD && !translator.isLegacyCachePresent()) {
+            shard = 0;
+            cursor = ScanParams.SCAN_POINTER_START;
+        }
+
+        int examined = 0;
+        int removed = 0;
+        int rewritten = 0;
+        for (int scans = 0; scans < SCANS_PER_RUN && examined < FIELDS_PER_RUN; scans++) {
+            byte[] key = shard == LEGACY_SHARD ? RedisKeys.legacyUuidCache() : RedisKeys.uuidCacheShard(shard);
+            ScanResult<Map.Entry<byte[], byte[]>> result = jedis.hscan(key, SafeEncoder.encode(cursor), SCAN_PARAMS);
+
+            List<byte[]> actions = new ArrayList<>();
+            for (Map.Entry<byte[], byte[]> entry : result.getResult()) {
+                examined++;
+                byte[] seen = entry.getValue();
+                byte[] value = seen;
+                if (UUIDTranslator.isStoredEntryExpired(value)) {
+                    add(actions, DELETE, entry.getKey(), seen, NONE, NONE);
+                    removed++;
+                    continue;
+                }
+
+                // Entries written by older versions are converted to the compact encoding as we pass them.
+                if (UUIDTranslator.isLegacyEncoding(value)) {
+                    value = UUIDTranslator.toCompactEncoding(value);
+                    rewritten++;
+                    if (shard != LEGACY_SHARD) {
+                        add(actions, REWRITE, entry.getKey(), seen, value, NONE);
+                    }
+                }
+                if (shard == LEGACY_SHARD) {
+                    add(actions, MOVE, entry.getKey(), seen, value, RedisKeys.uuidCache(SafeEncoder.encode(entry.getKey())));
+                }
+            }
+            if (!actions.isEmpty()) {
+                cleanScript.evalBinary(jedis, Collections.singletonList(key), actions);
+            }
+
+            cursor = result.getStringCursor();
+            if (cursor.equals(ScanParams.SCAN_POINTER_START)) {
+                shard = shard == LEGACY_SHARD ? 0 : (shard + 1) % RedisKeys.UUID_CACHE_SHARDS;
+            }
+        }
+
+        jedis.hset(STATE_KEY, "shard", String.valueOf(shard));
+        jedis.hset(STATE_KEY, "cursor", cursor);
+
+        if (removed > 0 || rewritten > 0) {
+            plugin.getLogger().fine("Removed " + removed + " expired and compacted " + rewritten + " UUID cache entries (" + examined + " examined).");
+        }
+    }
+
+    private static void add(List<byte[]> actions, byte[] action, byte[] field, byte[] seen, byte[] value, byte[] target) {
+        actions.add(action);
+        actions.add(field);
+        actions.add(seen);
+        actions.add(value);
+        actions.add(target);
+    }
+
+    private int firstShard() {
+        return translator.isLegacyCachePresent() ? LEGACY_SHARD : 0;
+    }
+}
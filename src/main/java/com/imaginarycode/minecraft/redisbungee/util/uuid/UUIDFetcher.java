@@ -2,6 +2,7 @@ package com.imaginarycode.minecraft.redisbungee.util.uuid;
 
 import com.google.common.collect.ImmutableList;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
+import com.imaginarycode.minecraft.redisbungee.util.UUIDUtil;
 import com.squareup.okhttp.*;
 import lombok.Setter;
 
@@ -19,8 +20,11 @@ public class UUIDFetcher implements Callable<Map<String, UUID>> {
     private final List<String> names;
     private final boolean rateLimiting;
 
+    private static final long RATE_LIMIT_TIMEOUT_MS = 60000;
     @Setter
     private static OkHttpClient httpClient;
+    @Setter
+    private static MojangRateLimiter rateLimiter;
 
     private UUIDFetcher(List<String> names, boolean rateLimiting) {
         this.names = ImmutableList.copyOf(names);
@@ -32,13 +36,17 @@ public class UUIDFetcher implements Callable<Map<String, UUID>> {
     }
 
     public static UUID getUUID(String id) {
-        return UUID.fromString(id.substring(0, 8) + "-" + id.substring(8, 12) + "-" + id.substring(12, 16) + "-" + id.substring(16, 20) + "-" + id.substring(20, 32));
+        return UUIDUtil.fromString(id);
     }
 
     public Map<String, UUID> call() throws Exception {
         Map<String, UUID> uuidMap = new HashMap<>();
         int requests = (int) Math.ceil(names.size() / PROFILES_PER_REQUEST);
         for (int i = 0; i < requests; i++) {
+            if (rateLimiting && rateLimiter != null) {
+                // Bulk fetches are never urgent, so let lookups players are waiting on go first.
+                rateLimiter.acquire(MojangRateLimiter.Priority.BACKGROUND, RATE_LIMIT_TIMEOUT_MS);
+            }
             String body = RedisBungee.getGson().toJson(names.subList(i * 100, Math.min((i + 1) * 100, names.size())));
             Request request = new Request.Builder().url(PROFILE_URL).post(RequestBody.create(JSON, body)).build();
             ResponseBody responseBody = httpClient.newCall(request).execute().body();
@@ -49,7 +57,7 @@ public class UUIDFetcher implements Callable<Map<String, UUID>> {
                 UUID uuid = UUIDFetcher.getUUID(profile.id);
                 uuidMap.put(profile.name, uuid);
             }
-            if (rateLimiting && i != requests - 1) {
+            if (rateLimiting && rateLimiter == null && i != requests - 1) {
                 Thread.sleep(100L);
             }
         }
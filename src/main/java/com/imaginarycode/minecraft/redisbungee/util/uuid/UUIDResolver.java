@@ -0,0 +1,213 @@
+package com.imaginarycode.minecraft.redisbungee.util.uuid;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.imaginarycode.minecraft.redisbungee.RedisBungee;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolves names to UUIDs using Mojang's bulk profile endpoint.
+ * <p>
+ * Concurrent requests for the same name share a single lookup, and names requested within a short window are sent
+ * together, up to 100 per request. When Mojang answers with HTTP 429 the batch is retried after an exponentially
+ * growing delay, or after the delay given in {@code Retry-After}.
+ * <p>
+ * The endpoint is passed in so that the resolver can be pointed at a local stand-in.
+ */
+public class UUIDResolver {
+    public static final String MOJANG_PROFILE_URL = "https://api.mojang.com/profiles/minecraft";
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final int PROFILES_PER_REQUEST = 100;
+    private static final long BATCH_WINDOW_MS = 50;
+    private static final long BATCH_SPACING_MS = 100;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(1);
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService executor;
+    private final String profileUrl;
+    private final MojangRateLimiter rateLimiter;
+    private final ConcurrentMap<String, SettableFuture<ResolvedProfile>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private long backoff;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param rateLimiter the network-wide Mojang rate limit to respect, or null to only react to HTTP 429
+     */
+    public UUIDResolver(OkHttpClient httpClient, ScheduledExecutorService executor, String profileUrl, MojangRateLimiter rateLimiter) {
+        this.httpClient = httpClient;
+        this.executor = executor;
+        this.profileUrl = profileUrl;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Resolves a name. The future completes with null if Mojang doesn't know the name, and fails if Mojang couldn't
+     * be asked.
+     *
+     * @param name the name to resolve, in any case
+     * @return a future for the profile with the name's proper capitalization
+     */
+    public ListenableFuture<ResolvedProfile> resolve(String name) {
+        String key = name.toLowerCase();
+        SettableFuture<ResolvedProfile> future = inFlight.get(key);
+        if (future != null)
+            return future;
+
+        SettableFuture<ResolvedProfile> created = SettableFuture.create();
+        future = inFlight.putIfAbsent(key, created);
+        if (future != null)
+            return future;
+
+        queue.add(key);
+        schedule(BATCH_WINDOW_MS);
+        return created;
+    }
+
+    /**
+     * The number of names waiting to be sent to Mojang.
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    private void schedule(long delay) {
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(flushTask, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<String> batch = new ArrayList<>(PROFILES_PER_REQUEST);
+        String next;
+        while (batch.size() < PROFILES_PER_REQUEST && (next = queue.poll()) != null) {
+            batch.add(next);
+        }
+
+        long delay = BATCH_SPACING_MS;
+        try {
+            long wait = batch.isEmpty() || rateLimiter == null ? 0 : rateLimiter.tryAcquire(MojangRateLimiter.Priority.INTERACTIVE);
+            if (wait > 0) {
+                // Out of network-wide budget, try again once a token should be available.
+                delay = wait;
+                queue.addAll(batch);
+            } else if (!batch.isEmpty()) {
+                Map<String, ResolvedProfile> profiles = fetch(batch);
+                backoff = 0;
+                for (String name : batch) {
+                    complete(name, profiles.get(name));
+                }
+            }
+        } catch (RateLimitedException e) {
+            backoff = e.getRetryAfter() > 0 ? e.getRetryAfter() : Math.min(Math.max(backoff * 2, INITIAL_BACKOFF_MS), MAX_BACKOFF_MS);
+            delay = backoff;
+            queue.addAll(batch);
+        } catch (Exception e) {
+            for (String name : batch) {
+                fail(name, e);
+            }
+        } finally {
+            // Clear the flag before looking at the queue, so names queued meanwhile are never left behind.
+            flushScheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule(delay);
+            }
+        }
+    }
+
+    private Map<String, ResolvedProfile> fetch(List<String> names) throws IOException {
+        String body = RedisBungee.getGson().toJson(names);
+        Request request = new Request.Builder().url(profileUrl).post(RequestBody.create(JSON, body)).build();
+        Response response = httpClient.newCall(request).execute();
+        try {
+            if (response.code() == 429) {
+                throw new RateLimitedException(parseRetryAfter(response.header("Retry-After")));
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Mojang returned HTTP " + response.code());
+            }
+
+            Profile[] array = RedisBungee.getGson().fromJson(response.body().string(), Profile[].class);
+            Map<String, ResolvedProfile> profiles = new HashMap<>();
+            if (array != null) {
+                for (Profile profile : array) {
+                    profiles.put(profile.name.toLowerCase(), new ResolvedProfile(profile.name, UUIDFetcher.getUUID(profile.id)));
+                }
+            }
+            return profiles;
+        } finally {
+            response.body().close();
+        }
+    }
+
+    private static long parseRetryAfter(String header) {
+        if (header == null)
+            return 0;
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(header.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void complete(String name, ResolvedProfile profile) {
+        SettableFuture<ResolvedProfile> future = inFlight.remove(name);
+        if (future != null)
+            future.set(profile);
+    }
+
+    private void fail(String name, Throwable cause) {
+        SettableFuture<ResolvedProfile> future = inFlight.remove(name);
+        if (future != null)
+            future.setException(cause);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static final class ResolvedProfile {
+        private final String name;
+        private final UUID uuid;
+    }
+
+    private static class Profile {
+        String id;
+        String name;
+    }
+
+    @Getter
+    private static class RateLimitedException extends IOException {
+        private final long retryAfter;
+
+        RateLimitedException(long retryAfter) {
+            super("Rate limited by Mojang");
+            this.retryAfter = retryAfter;
+        }
+    }
+}
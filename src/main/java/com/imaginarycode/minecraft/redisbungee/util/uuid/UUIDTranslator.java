@@ -1,41 +1,100 @@
 package com.imaginarycode.minecraft.redisbungee.util.uuid;
 
 import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonParseException;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
+import com.imaginarycode.minecraft.redisbungee.util.RedisKeys;
+import com.imaginarycode.minecraft.redisbungee.util.UUIDUtil;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
-import java.util.regex.Pattern;
 
 @RequiredArgsConstructor
 public final class UUIDTranslator {
-    private static final Pattern UUID_PATTERN = Pattern.compile("[a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12}");
-    private static final Pattern MOJANGIAN_UUID_PATTERN = Pattern.compile("[a-fA-F0-9]{32}");
+    private static final long ENTRY_TTL = TimeUnit.DAYS.toMillis(3);
+    private static final long MOJANG_TIMEOUT_SECONDS = 30;
+    private static final byte COMPACT_ENCODING_V1 = 1;
+    private static final int COMPACT_HEADER_LENGTH = 1 + 16 + 4;
+    private static final int MAX_CACHED_ENTRIES = 10000;
+    private static final int FIELDS_PER_HMGET = 500;
+    // Rough per-entry cost: the entry, its UUID, two cache nodes and the name plus its lower-cased key (per char).
+    private static final int ENTRY_OVERHEAD_BYTES = 250;
+    private static final int BYTES_PER_NAME_CHAR = 4;
     private final RedisBungee plugin;
-    private final Map<String, CachedUUIDEntry> nameToUuidMap = new ConcurrentHashMap<>(128, 0.5f, 4);
-    private final Map<UUID, CachedUUIDEntry> uuidToNameMap = new ConcurrentHashMap<>(128, 0.5f, 4);
+    @Getter
+    private final UUIDResolver resolver;
+    private final Cache<String, CachedUUIDEntry> nameToUuidCache = createCache();
+    private final Cache<UUID, CachedUUIDEntry> uuidToNameCache = createCache();
+    // Entries written by older versions live in a single hash until the cleaner has moved them into the shards.
+    private volatile boolean legacyCachePresent = true;
 
-    private void addToMaps(String name, UUID uuid) {
-        // This is why I like LocalDate...
+    private static <K> Cache<K, CachedUUIDEntry> createCache() {
+        // Entries can also expire earlier than this, when they were loaded from Redis close to their expiry.
+        return CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_ENTRIES)
+                .expireAfterWrite(ENTRY_TTL, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
 
+    private CachedUUIDEntry addToMaps(String name, UUID uuid) {
         // Cache the entry for three days.
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.DAY_OF_MONTH, 3);
+        CachedUUIDEntry entry = new CachedUUIDEntry(name, uuid, System.currentTimeMillis() + ENTRY_TTL);
+        addToMaps(entry);
+        return entry;
+    }
+
+    private void addToMaps(CachedUUIDEntry entry) {
+        nameToUuidCache.put(entry.getName().toLowerCase(), entry);
+        uuidToNameCache.put(entry.getUuid(), entry);
+    }
+
+    /**
+     * Returns the UUID for this name if it can be answered without asking Redis or Mojang, or null otherwise.
+     */
+    public final UUID getCachedUuid(@NonNull String player) {
+        ProxiedPlayer online = ProxyServer.getInstance().getPlayer(player);
+        if (online != null)
+            return online.getUniqueId();
 
-        // Create the entry and populate the local maps
-        CachedUUIDEntry entry = new CachedUUIDEntry(name, uuid, calendar);
-        nameToUuidMap.put(name.toLowerCase(), entry);
-        uuidToNameMap.put(uuid, entry);
+        CachedUUIDEntry cachedUUIDEntry = nameToUuidCache.getIfPresent(player.toLowerCase());
+        if (cachedUUIDEntry != null && !cachedUUIDEntry.expired())
+            return cachedUUIDEntry.getUuid();
+
+        return null;
+    }
+
+    /**
+     * Returns the name for this UUID if it can be answered without asking Redis or Mojang, or null otherwise.
+     */
+    public final String getCachedName(@NonNull UUID player) {
+        ProxiedPlayer online = ProxyServer.getInstance().getPlayer(player);
+        if (online != null)
+            return online.getName();
+
+        CachedUUIDEntry cachedUUIDEntry = uuidToNameCache.getIfPresent(player);
+        if (cachedUUIDEntry != null && !cachedUUIDEntry.expired())
+            return cachedUUIDEntry.getName();
+
+        return null;
     }
 
     public final UUID getTranslatedUuid(@NonNull String player, boolean expensiveLookups) {
@@ -45,22 +104,17 @@ public final class UUIDTranslator {
             return ProxyServer.getInstance().getPlayer(player).getUniqueId();
 
         // Check if it exists in the map
-        CachedUUIDEntry cachedUUIDEntry = nameToUuidMap.get(player.toLowerCase());
+        CachedUUIDEntry cachedUUIDEntry = nameToUuidCache.getIfPresent(player.toLowerCase());
         if (cachedUUIDEntry != null) {
             if (!cachedUUIDEntry.expired())
                 return cachedUUIDEntry.getUuid();
             else
-                nameToUuidMap.remove(player);
+                nameToUuidCache.invalidate(player.toLowerCase());
         }
 
         // Check if we can exit early
-        if (UUID_PATTERN.matcher(player).find()) {
-            return UUID.fromString(player);
-        }
-
-        if (MOJANGIAN_UUID_PATTERN.matcher(player).find()) {
-            // Reconstruct the UUID
-            return UUIDFetcher.getUUID(player);
+        if (UUIDUtil.isUuid(player) || UUIDUtil.isMojangUuid(player)) {
+            return UUIDUtil.fromString(player);
         }
 
         // If we are in offline mode, UUID generation is simple.
@@ -71,42 +125,45 @@ public final class UUIDTranslator {
 
         // Let's try Redis.
         try (Jedis jedis = plugin.getPool().getResource()) {
-            String stored = jedis.hget("uuid-cache", player.toLowerCase());
+            byte[] field = SafeEncoder.encode(player.toLowerCase());
+            byte[] stored = getStored(jedis, RedisKeys.uuidCache(player.toLowerCase()), field);
             if (stored != null) {
                 // Found an entry value. Deserialize it.
-                CachedUUIDEntry entry = RedisBungee.getGson().fromJson(stored, CachedUUIDEntry.class);
+                CachedUUIDEntry entry = decodeOrNull(stored);
 
-                // Check for expiry:
-                if (entry.expired()) {
-                    jedis.hdel("uuid-cache", player.toLowerCase());
+                if (entry == null) {
+                    // Unreadable, so drop it and carry on as if it wasn't there.
+                    removeStored(jedis, RedisKeys.uuidCache(player.toLowerCase()), field);
+                } else if (entry.expired()) {
+                    // Check for expiry:
+                    removeStored(jedis, RedisKeys.uuidCache(player.toLowerCase()), field);
                     // Doesn't hurt to also remove the UUID entry as well.
-                    jedis.hdel("uuid-cache", entry.getUuid().toString());
+                    removeStored(jedis, entry.getUuid());
                 } else {
-                    nameToUuidMap.put(player.toLowerCase(), entry);
-                    uuidToNameMap.put(entry.getUuid(), entry);
+                    addToMaps(entry);
                     return entry.getUuid();
                 }
             }
-
-            // That didn't work. Let's ask Mojang.
-            if (!expensiveLookups || !ProxyServer.getInstance().getConfig().isOnlineMode())
-                return null;
-
-            Map<String, UUID> uuidMap1;
-            try {
-                uuidMap1 = new UUIDFetcher(Collections.singletonList(player)).call();
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "Unable to fetch UUID from Mojang for " + player, e);
-                return null;
-            }
-            for (Map.Entry<String, UUID> entry : uuidMap1.entrySet()) {
-                if (entry.getKey().equalsIgnoreCase(player)) {
-                    persistInfo(entry.getKey(), entry.getValue(), jedis);
-                    return entry.getValue();
-                }
-            }
         } catch (JedisException e) {
             plugin.getLogger().log(Level.SEVERE, "Unable to fetch UUID for " + player, e);
+            return null;
+        }
+
+        // That didn't work. Let's ask Mojang. The connection has been given back by now, since the rate limiter
+        // needs one of its own.
+        if (!expensiveLookups || !ProxyServer.getInstance().getConfig().isOnlineMode())
+            return null;
+
+        UUIDResolver.ResolvedProfile profile;
+        try {
+            profile = resolver.resolve(player).get(MOJANG_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Unable to fetch UUID from Mojang for " + player, e);
+            return null;
+        }
+        if (profile != null) {
+            persistInfo(profile.getName(), profile.getUuid());
+            return profile.getUuid();
         }
 
         return null; // Nope, game over!
@@ -119,80 +176,379 @@ public final class UUIDTranslator {
             return ProxyServer.getInstance().getPlayer(player).getName();
 
         // Check if it exists in the map
-        CachedUUIDEntry cachedUUIDEntry = uuidToNameMap.get(player);
+        CachedUUIDEntry cachedUUIDEntry = uuidToNameCache.getIfPresent(player);
         if (cachedUUIDEntry != null) {
             if (!cachedUUIDEntry.expired())
                 return cachedUUIDEntry.getName();
             else
-                uuidToNameMap.remove(player);
+                uuidToNameCache.invalidate(player);
         }
 
         // Okay, it wasn't locally cached. Let's try Redis.
         try (Jedis jedis = plugin.getPool().getResource()) {
-            String stored = jedis.hget("uuid-cache", player.toString());
+            byte[] stored = getStored(jedis, player);
             if (stored != null) {
                 // Found an entry value. Deserialize it.
-                CachedUUIDEntry entry = RedisBungee.getGson().fromJson(stored, CachedUUIDEntry.class);
+                CachedUUIDEntry entry = decodeOrNull(stored);
 
-                // Check for expiry:
-                if (entry.expired()) {
-                    jedis.hdel("uuid-cache", player.toString());
+                if (entry == null) {
+                    // Unreadable, so drop it and carry on as if it wasn't there.
+                    removeStored(jedis, player);
+                } else if (entry.expired()) {
+                    // Check for expiry:
+                    removeStored(jedis, player);
                     // Doesn't hurt to also remove the named entry as well.
                     // TODO: Since UUIDs are fixed, we could look up the name and see if the UUID matches.
-                    jedis.hdel("uuid-cache", entry.getName());
+                    String name = entry.getName().toLowerCase();
+                    removeStored(jedis, RedisKeys.uuidCache(name), SafeEncoder.encode(name));
                 } else {
-                    nameToUuidMap.put(entry.getName().toLowerCase(), entry);
-                    uuidToNameMap.put(player, entry);
+                    addToMaps(entry);
                     return entry.getName();
                 }
             }
+        } catch (JedisException e) {
+            plugin.getLogger().log(Level.SEVERE, "Unable to fetch name for " + player, e);
+            return null;
+        }
 
-            if (!expensiveLookups || !ProxyServer.getInstance().getConfig().isOnlineMode())
-                return null;
+        if (!expensiveLookups || !ProxyServer.getInstance().getConfig().isOnlineMode())
+            return null;
 
-            // That didn't work. Let's ask Mojang. This call may fail, because Mojang is insane.
-            String name;
-            try {
-                List<String> nameHist = NameFetcher.nameHistoryFromUuid(player);
-                name = Iterables.getLast(nameHist, null);
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "Unable to fetch name from Mojang for " + player, e);
-                return null;
-            }
+        // That didn't work. Let's ask Mojang. This call may fail, because Mojang is insane.
+        String name;
+        try {
+            List<String> nameHist = NameFetcher.nameHistoryFromUuid(player);
+            name = Iterables.getLast(nameHist, null);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Unable to fetch name from Mojang for " + player, e);
+            return null;
+        }
+
+        if (name != null) {
+            persistInfo(name, player);
+            return name;
+        }
 
+        return null;
+    }
+
+    /**
+     * Looks up a name locally and then in Redis, on a connection the caller already holds. Mojang isn't asked.
+     */
+    public final String getStoredName(@NonNull UUID player, Jedis jedis) {
+        String name = getCachedName(player);
+        if (name != null)
+            return name;
+
+        byte[] stored = getStored(jedis, player);
+        if (stored == null)
+            return null;
+        CachedUUIDEntry entry = decodeOrNull(stored);
+        if (entry == null || entry.expired())
+            return null;
+        addToMaps(entry);
+        return entry.getName();
+    }
+
+    /**
+     * Looks up the names of many players at once. Names known locally are used first, and the rest are fetched from
+     * Redis with a single pipeline of HMGETs, one per cache shard and at most 500 fields each.
+     * Only players Redis knows nothing about are looked up one by one, and only if {@code expensiveLookups} is true
+     * or old cache entries still have to be checked.
+     *
+     * @return the names found, by UUID. Players whose name couldn't be found are left out.
+     */
+    public final Map<UUID, String> getNamesFromUuids(@NonNull Collection<UUID> players, boolean expensiveLookups) {
+        Map<UUID, String> names = new HashMap<>();
+        // The shard keys are shared arrays, so they work as map keys here.
+        Map<byte[], List<UUID>> missing = new IdentityHashMap<>();
+        for (UUID player : players) {
+            String name = getCachedName(player);
             if (name != null) {
-                persistInfo(name, player, jedis);
-                return name;
+                names.put(player, name);
+                continue;
+            }
+            byte[] key = RedisKeys.uuidCache(UUIDUtil.toAscii(player));
+            List<UUID> shard = missing.get(key);
+            if (shard == null) {
+                shard = new ArrayList<>();
+                missing.put(key, shard);
             }
+            shard.add(player);
+        }
 
-            return null;
+        if (missing.isEmpty())
+            return names;
+
+        List<UUID> unresolved;
+        try (Jedis jedis = plugin.getPool().getResource()) {
+            unresolved = fetchNames(jedis, missing, names);
         } catch (JedisException e) {
-            plugin.getLogger().log(Level.SEVERE, "Unable to fetch name for " + player, e);
-            return null;
+            plugin.getLogger().log(Level.SEVERE, "Unable to fetch names for " + players.size() + " players", e);
+            return names;
+        }
+
+        // Whatever is left is expired, unknown or still in the old hash; these take the slow path.
+        if (expensiveLookups || legacyCachePresent) {
+            for (UUID player : unresolved) {
+                String name = getNameFromUuid(player, expensiveLookups);
+                if (name != null)
+                    names.put(player, name);
+            }
+        }
+        return names;
+    }
+
+    private List<UUID> fetchNames(Jedis jedis, Map<byte[], List<UUID>> byShard, Map<UUID, String> names) {
+        List<List<UUID>> requested = new ArrayList<>();
+        List<Response<List<byte[]>>> responses = new ArrayList<>();
+        Pipeline pipeline = jedis.pipelined();
+        for (Map.Entry<byte[], List<UUID>> shard : byShard.entrySet()) {
+            byte[] key = shard.getKey();
+            for (List<UUID> chunk : Lists.partition(shard.getValue(), FIELDS_PER_HMGET)) {
+                byte[][] fields = new byte[chunk.size()][];
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = UUIDUtil.toAscii(chunk.get(i));
+                }
+                requested.add(chunk);
+                responses.add(pipeline.hmget(key, fields));
+            }
+        }
+        pipeline.sync();
+
+        List<UUID> unresolved = new ArrayList<>();
+        for (int i = 0; i < requested.size(); i++) {
+            List<UUID> chunk = requested.get(i);
+            List<byte[]> values = responses.get(i).get();
+            for (int j = 0; j < chunk.size(); j++) {
+                byte[] stored = values.get(j);
+                CachedUUIDEntry entry = stored == null ? null : decodeOrNull(stored);
+                // Expired entries are left for the slow path or the cleaner to remove.
+                if (entry == null || entry.expired()) {
+                    unresolved.add(chunk.get(j));
+                } else {
+                    addToMaps(entry);
+                    names.put(chunk.get(j), entry.getName());
+                }
+            }
+        }
+        return unresolved;
+    }
+
+    /**
+     * Stores what Mojang told us on a connection of its own. Lookups don't hold one while they wait on Mojang.
+     */
+    private void persistInfo(String name, UUID uuid) {
+        try (Jedis jedis = plugin.getPool().getResource()) {
+            persistInfo(name, uuid, jedis);
+        } catch (JedisException e) {
+            plugin.getLogger().log(Level.SEVERE, "Unable to cache the name of " + uuid, e);
         }
     }
 
     public final void persistInfo(String name, UUID uuid, Jedis jedis) {
-        addToMaps(name, uuid);
-        String json = RedisBungee.getGson().toJson(uuidToNameMap.get(uuid));
-        jedis.hmset("uuid-cache", ImmutableMap.of(name.toLowerCase(), json, uuid.toString(), json));
+        Pipeline pipeline = jedis.pipelined();
+        persistInfo(name, uuid, pipeline);
+        pipeline.sync();
     }
 
     public final void persistInfo(String name, UUID uuid, Pipeline jedis) {
-        addToMaps(name, uuid);
-        String json = RedisBungee.getGson().toJson(uuidToNameMap.get(uuid));
-        jedis.hmset("uuid-cache", ImmutableMap.of(name.toLowerCase(), json, uuid.toString(), json));
+        CachedUUIDEntry entry = addToMaps(name, uuid);
+        byte[] encoded = encode(entry);
+        // The name and UUID usually land in different shards.
+        String lowerName = name.toLowerCase();
+        byte[] uuidField = UUIDUtil.toAscii(uuid);
+        jedis.hset(RedisKeys.uuidCache(lowerName), SafeEncoder.encode(lowerName), encoded);
+        jedis.hset(RedisKeys.uuidCache(uuidField), uuidField, encoded);
+    }
+
+    private byte[] getStored(Jedis jedis, UUID uuid) {
+        byte[] field = UUIDUtil.toAscii(uuid);
+        return getStored(jedis, RedisKeys.uuidCache(field), field);
+    }
+
+    private byte[] getStored(Jedis jedis, byte[] key, byte[] field) {
+        byte[] stored = jedis.hget(key, field);
+        if (stored == null && legacyCachePresent) {
+            stored = jedis.hget(RedisKeys.legacyUuidCache(), field);
+        }
+        return stored;
+    }
+
+    private void removeStored(Jedis jedis, UUID uuid) {
+        byte[] field = UUIDUtil.toAscii(uuid);
+        removeStored(jedis, RedisKeys.uuidCache(field), field);
+    }
+
+    private void removeStored(Jedis jedis, byte[] key, byte[] field) {
+        jedis.hdel(key, field);
+        if (legacyCachePresent) {
+            jedis.hdel(RedisKeys.legacyUuidCache(), field);
+        }
+    }
+
+    /**
+     * Encodes an entry for the UUID cache: a version byte, the UUID as 16 bytes, the expiry in epoch seconds as an
+     * unsigned 32-bit integer, and finally the name in UTF-8.
+     */
+    static byte[] encode(CachedUUIDEntry entry) {
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(COMPACT_HEADER_LENGTH + name.length)
+                .put(COMPACT_ENCODING_V1)
+                .putLong(entry.getUuid().getMostSignificantBits())
+                .putLong(entry.getUuid().getLeastSignificantBits())
+                .putInt((int) TimeUnit.MILLISECONDS.toSeconds(entry.getExpiry()))
+                .put(name)
+                .array();
+    }
+
+    /**
+     * Decodes an entry from the UUID cache, in either the compact encoding or the JSON used by older versions.
+     *
+     * @throws IllegalArgumentException if the value can't be read
+     */
+    static CachedUUIDEntry decode(byte[] stored) {
+        if (isLegacyEncoding(stored)) {
+            try {
+                LegacyUUIDEntry legacy = RedisBungee.getGson().fromJson(new String(stored, StandardCharsets.UTF_8), LegacyUUIDEntry.class);
+                if (legacy == null || legacy.name == null || legacy.uuid == null || legacy.expiry == null)
+                    throw new IllegalArgumentException("Incomplete UUID cache entry");
+                return new CachedUUIDEntry(legacy.name, legacy.uuid, legacy.expiry.getTimeInMillis());
+            } catch (JsonParseException e) {
+                throw new IllegalArgumentException("Unreadable UUID cache entry", e);
+            }
+        }
+
+        if (stored.length < COMPACT_HEADER_LENGTH || stored[0] != COMPACT_ENCODING_V1)
+            throw new IllegalArgumentException("Unknown UUID cache entry encoding");
+        ByteBuffer buffer = ByteBuffer.wrap(stored, 1, COMPACT_HEADER_LENGTH - 1);
+        UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+        long expiry = TimeUnit.SECONDS.toMillis(buffer.getInt() & 0xFFFFFFFFL);
+        String name = new String(stored, COMPACT_HEADER_LENGTH, stored.length - COMPACT_HEADER_LENGTH, StandardCharsets.UTF_8);
+        return new CachedUUIDEntry(name, uuid, expiry);
+    }
+
+    /**
+     * Decodes an entry like {@link #decode(byte[])}, but returns null if it can't be read.
+     */
+    private static CachedUUIDEntry decodeOrNull(byte[] stored) {
+        try {
+            return decode(stored);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static boolean isLegacyEncoding(byte[] stored) {
+        return stored.length > 0 && stored[0] == '{';
+    }
+
+    /**
+     * Whether a value stored in the UUID cache has expired. Values that can't be read are treated as expired.
+     */
+    static boolean isStoredEntryExpired(byte[] stored) {
+        try {
+            return decode(stored).expired();
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Re-encodes a value stored by an older version in the compact encoding.
+     */
+    static byte[] toCompactEncoding(byte[] stored) {
+        return encode(decode(stored));
+    }
+
+    /**
+     * Called once the unsharded {@code uuid-cache} hash has been fully migrated, so lookups stop falling back to it.
+     */
+    void legacyCacheDrained() {
+        legacyCachePresent = false;
+    }
+
+    boolean isLegacyCachePresent() {
+        return legacyCachePresent;
+    }
+
+    /**
+     * The entries held locally that haven't expired yet, in the compact encoding.
+     */
+    public final List<byte[]> snapshot() {
+        List<byte[]> records = new ArrayList<>();
+        for (CachedUUIDEntry entry : uuidToNameCache.asMap().values()) {
+            if (!entry.expired())
+                records.add(encode(entry));
+        }
+        return records;
+    }
+
+    /**
+     * Restores entries written by {@link #snapshot()}. Expired or unreadable entries and players we already know are
+     * skipped.
+     *
+     * @return how many entries were restored
+     */
+    public final int restore(List<ByteBuffer> records) {
+        int restored = 0;
+        for (ByteBuffer record : records) {
+            byte[] stored = new byte[record.remaining()];
+            record.get(stored);
+            CachedUUIDEntry entry;
+            try {
+                entry = decode(stored);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (entry.expired() || uuidToNameCache.getIfPresent(entry.getUuid()) != null)
+                continue;
+            addToMaps(entry);
+            restored++;
+        }
+        return restored;
+    }
+
+    /**
+     * Combined hit/miss statistics of the local name and UUID caches.
+     */
+    public final CacheStats getCacheStats() {
+        return nameToUuidCache.stats().plus(uuidToNameCache.stats());
+    }
+
+    public final long getCacheSize() {
+        return uuidToNameCache.size();
+    }
+
+    /**
+     * Estimates how many bytes the local caches take up. This is only a rough figure.
+     */
+    public final long estimateCacheFootprint() {
+        long bytes = 0;
+        for (CachedUUIDEntry entry : uuidToNameCache.asMap().values()) {
+            bytes += ENTRY_OVERHEAD_BYTES + BYTES_PER_NAME_CHAR * entry.getName().length();
+        }
+        return bytes;
     }
 
     @RequiredArgsConstructor
     @Getter
-    private class CachedUUIDEntry {
+    static final class CachedUUIDEntry {
         private final String name;
         private final UUID uuid;
-        private final Calendar expiry;
+        private final long expiry;
 
         public boolean expired() {
-            return Calendar.getInstance().after(expiry);
+            return System.currentTimeMillis() > expiry;
         }
     }
+
+    /**
+     * The JSON form entries were stored in by older versions.
+     */
+    private static final class LegacyUUIDEntry {
+        private String name;
+        private UUID uuid;
+        private Calendar expiry;
+    }
 }
@@ -0,0 +1,66 @@
+-- Cleans up after a proxy that stopped sending heartbeats, one batch of its players per call.
+-- KEYS[1] is the claim key, KEYS[2] the proxy's usersOnline set and KEYS[3] its lease. KEYS[4] onwards are removed with
+-- the claim once the set is empty.
+-- ARGV[1] is the proxy ID, ARGV[2] the caller's fencing token, ARGV[3] how long the claim lasts in milliseconds,
+-- ARGV[4] the batch size, ARGV[5] the current Redis time in seconds and ARGV[6] the last online time to set. ARGV[7] is
+-- "1" if the proxy's lease was seen expiring, in which case its heartbeat doesn't have to be old yet.
+-- Returns how many players were cleaned up, 0 once there are none left, or -1 if someone else holds the claim or the
+-- proxy came back.
+local call = redis.call
+local proxy = ARGV[1]
+local token = ARGV[2]
+-- Popping a batch is random, which only goes together with writes under effects replication (Redis 3.2+). Older
+-- versions read the whole set instead.
+local replicated = redis.replicate_commands and redis.replicate_commands()
+
+local holder = call("GET", KEYS[1])
+if holder and holder ~= token then
+    return -1
+end
+
+local alive = call("EXISTS", KEYS[3]) == 1
+if not alive and ARGV[7] ~= "1" then
+    local heartbeat = tonumber(call("HGET", "heartbeats", proxy))
+    alive = heartbeat and heartbeat + 30 > tonumber(ARGV[5])
+end
+if alive then
+    if holder then
+        call("DEL", KEYS[1])
+    end
+    return -1
+end
+
+local players
+if replicated then
+    players = call("SPOP", KEYS[2], tonumber(ARGV[4]))
+else
+    players = call("SMEMBERS", KEYS[2])
+end
+if #players == 0 then
+    call("DEL", unpack(KEYS))
+    return 0
+end
+
+call("SET", KEYS[1], token, "PX", ARGV[3])
+local batch = math.min(#players, tonumber(ARGV[4]))
+local timestamp = tonumber(ARGV[6])
+for i = 1, batch do
+    local player = players[i]
+    local key = "player:" .. player
+    -- They may have logged in again through another proxy since.
+    if call("HGET", key, "proxy") == proxy then
+        call("HDEL", key, "server", "ip", "proxy")
+        call("HSET", key, "online", ARGV[6])
+        call("PUBLISH", "redisbungee-data", cjson.encode({
+            target = player,
+            source = proxy,
+            action = "LEAVE",
+            payload = { timestamp = timestamp }
+        }))
+    end
+end
+if not replicated then
+    call("SREM", KEYS[2], unpack(players, 1, batch))
+end
+
+return batch
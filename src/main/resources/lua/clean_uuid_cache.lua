@@ -0,0 +1,38 @@
+-- Applies what the UUID cache cleaner decided for one page of the hash in KEYS[1]. ARGV holds groups of an action, a
+-- field, the value the cleaner saw, a new value and a target hash. Fields that no longer hold the value that was seen
+-- have been written by a proxy since, and are left alone.
+--   del:  removes the field.
+--   set:  replaces the value, e.g. with its compact encoding.
+--   move: moves the field into the target hash, unless the target has an entry that expires later.
+-- Returns how many fields were changed.
+local call = redis.call
+local source = KEYS[1]
+
+-- The expiry of an entry in the compact encoding, in epoch seconds, or 0 if it isn't one.
+local function expiry(value)
+    if #value < 21 or string.byte(value, 1) ~= 1 then
+        return 0
+    end
+    return (struct.unpack(">I4", value, 18))
+end
+
+local changed = 0
+for i = 1, #ARGV, 5 do
+    local action, field, seen, value, target = ARGV[i], ARGV[i + 1], ARGV[i + 2], ARGV[i + 3], ARGV[i + 4]
+    if call("HGET", source, field) == seen then
+        if action == "set" then
+            call("HSET", source, field, value)
+        elseif action == "move" then
+            local current = call("HGET", target, field)
+            if not current or expiry(current) < expiry(value) then
+                call("HSET", target, field, value)
+            end
+            call("HDEL", source, field)
+        else
+            call("HDEL", source, field)
+        end
+        changed = changed + 1
+    end
+end
+
+return changed
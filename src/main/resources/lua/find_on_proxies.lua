@@ -0,0 +1,13 @@
+-- Returns the players in ARGV that are in any of the usersOnline sets in KEYS.
+local found = {}
+
+for _, player in ipairs(ARGV) do
+    for _, key in ipairs(KEYS) do
+        if redis.call("SISMEMBER", key, player) == 1 then
+            table.insert(found, player)
+            break
+        end
+    end
+end
+
+return found
@@ -0,0 +1,42 @@
+-- One heartbeat of a proxy: stamps its heartbeat, renews its lease and the leadership, and reads back what it needs to
+-- know about the network.
+-- KEYS[1] is the heartbeats hash, KEYS[2] the proxy's lease, KEYS[3] the leader hash and KEYS[4] the leader fencing
+-- token counter.
+-- ARGV[1] is the proxy ID, ARGV[2] the Redis time in seconds as estimated by the proxy, ARGV[3] how long the lease
+-- lasts and ARGV[4] how long the leadership lasts, both in milliseconds.
+-- Returns the Redis time in milliseconds, 1 if the lease had run out (and 0 otherwise), the leader and its fencing
+-- token, the number of players on live proxies, and the heartbeats hash.
+local call = redis.call
+local proxy = ARGV[1]
+
+call("HSET", KEYS[1], proxy, ARGV[2])
+
+local leaseLost = 0
+if not call("SET", KEYS[2], proxy, "XX", "PX", ARGV[3]) then
+    leaseLost = 1
+    call("SET", KEYS[2], proxy, "PX", ARGV[3])
+end
+
+-- The token only changes when the leadership changes hands.
+local leader = call("HMGET", KEYS[3], "proxy", "token")
+if not leader[1] then
+    leader = { proxy, tostring(call("INCR", KEYS[4])) }
+    call("HMSET", KEYS[3], "proxy", leader[1], "token", leader[2])
+end
+if leader[1] == proxy then
+    call("PEXPIRE", KEYS[3], ARGV[4])
+end
+
+-- Redis versions before 5 don't allow writing after reading the clock in a script, so it comes last.
+local time = call("TIME")
+local now = tonumber(time[1])
+local heartbeats = call("HGETALL", KEYS[1])
+local count = 0
+for i = 1, #heartbeats, 2 do
+    local stamp = tonumber(heartbeats[i + 1])
+    if stamp and now <= stamp + 30 then
+        count = count + call("SCARD", "proxy:" .. heartbeats[i] .. ":usersOnline")
+    end
+end
+
+return { now * 1000 + math.floor(tonumber(time[2]) / 1000), leaseLost, leader[1], leader[2], count, heartbeats }
@@ -0,0 +1,35 @@
+local call = redis.call
+
+-- A token bucket shared by every proxy. Refilling depends on the current time, so ask for effects replication where
+-- it is available, and otherwise fall back to the caller's clock.
+local now
+if redis.replicate_commands and redis.replicate_commands() then
+    local time = call("TIME")
+    now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+else
+    now = tonumber(ARGV[4])
+end
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local rate = tonumber(ARGV[2]) -- tokens per millisecond
+local reserve = tonumber(ARGV[3]) -- tokens this priority must leave for more urgent requests
+
+local state = call("HMGET", key, "tokens", "last")
+local tokens = tonumber(state[1]) or capacity
+local last = tonumber(state[2]) or now
+if now > last then
+    tokens = math.min(capacity, tokens + (now - last) * rate)
+end
+
+local wait = 0
+if tokens - 1 >= reserve then
+    tokens = tokens - 1
+else
+    wait = math.ceil((reserve + 1 - tokens) / rate)
+end
+
+call("HMSET", key, "tokens", tostring(tokens), "last", tostring(now))
+call("PEXPIRE", key, math.ceil(capacity / rate) + 1000)
+
+return wait
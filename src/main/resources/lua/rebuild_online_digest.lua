@@ -0,0 +1,12 @@
+-- Recomputes the digest of a usersOnline set (KEYS[1]) into KEYS[2]: the sum of the last 8 hex digits of every UUID.
+-- Returns the new digest.
+local sum = 0
+
+for _, player in ipairs(redis.call("SMEMBERS", KEYS[1])) do
+    sum = sum + (tonumber(string.sub(player, -8), 16) or 0)
+end
+
+-- Lua numbers are doubles, which would be written in exponent notation past 1e14.
+local digest = string.format("%.0f", sum)
+redis.call("SET", KEYS[2], digest)
+return digest
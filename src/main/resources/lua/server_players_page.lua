@@ -0,0 +1,12 @@
+-- Returns how many players are on a server, followed by one page of its name index in order.
+-- KEYS[1] is the index to read. When more keys are given, they are the per-proxy indexes to merge into KEYS[1], which
+-- is then kept for ARGV[3] milliseconds so following pages are read from the same snapshot.
+-- ARGV[1] and ARGV[2] are the first and last rank of the page.
+if #KEYS > 1 and redis.call("EXISTS", KEYS[1]) == 0 then
+    redis.call("ZUNIONSTORE", KEYS[1], #KEYS - 1, unpack(KEYS, 2))
+    redis.call("PEXPIRE", KEYS[1], ARGV[3])
+end
+
+local page = redis.call("ZRANGE", KEYS[1], ARGV[1], ARGV[2])
+table.insert(page, 1, redis.call("ZCARD", KEYS[1]))
+return page
@@ -1,18 +1,34 @@
+-- Returns the players on the proxies in ARGV grouped by the server they are on, packed into a single string. For each
+-- server it holds the length of its name (16 bits) and the name, the number of players (32 bits) and their dashed
+-- UUIDs, 36 bytes each. Numbers are big-endian.
 local call = redis.call
 local ipairs = ipairs
 
-local serverToData = {}
+local serverToPlayers = {}
+local servers = {}
 
 for _, proxy in ipairs(ARGV) do
     local players = call("SMEMBERS", "proxy:" .. proxy .. ":usersOnline")
     for _, player in ipairs(players) do
         local server = call("HGET", "player:" .. player, "server")
-        if server then
-            local sz = #serverToData
-            serverToData[sz + 1] = server
-            serverToData[sz + 2] = player
+        -- Anything but the dashed form would throw off the fixed size records.
+        if server and #player == 36 then
+            local onServer = serverToPlayers[server]
+            if not onServer then
+                onServer = {}
+                serverToPlayers[server] = onServer
+                servers[#servers + 1] = server
+            end
+            onServer[#onServer + 1] = player
         end
     end
 end
 
-return serverToData
\ No newline at end of file
+local packed = {}
+for _, server in ipairs(servers) do
+    local onServer = serverToPlayers[server]
+    packed[#packed + 1] = struct.pack(">H", #server) .. server .. struct.pack(">I", #onServer)
+    packed[#packed + 1] = table.concat(onServer)
+end
+
+return table.concat(packed)
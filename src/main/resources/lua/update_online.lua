@@ -0,0 +1,16 @@
+-- Adds a player (ARGV[2]) to a usersOnline set (KEYS[1]) if ARGV[1] is "1", or removes them otherwise. Their share of
+-- the digest (ARGV[3]) is added to or taken from KEYS[2] only if the set actually changed.
+-- Returns 1 if the set changed, or 0.
+local changed
+if ARGV[1] == "1" then
+    changed = redis.call("SADD", KEYS[1], ARGV[2])
+    if changed == 1 then
+        redis.call("INCRBY", KEYS[2], ARGV[3])
+    end
+else
+    changed = redis.call("SREM", KEYS[1], ARGV[2])
+    if changed == 1 then
+        redis.call("DECRBY", KEYS[2], ARGV[3])
+    end
+end
+return changed
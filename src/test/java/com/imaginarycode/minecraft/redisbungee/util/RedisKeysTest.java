@@ -0,0 +1,47 @@
+package com.imaginarycode.minecraft.redisbungee.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class RedisKeysTest {
+    @Test
+    public void uuidCacheShardsMatchForBytesAndStrings() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            assertSame(uuid.toString(), RedisKeys.uuidCache(uuid.toString()), RedisKeys.uuidCache(UUIDUtil.toAscii(uuid)));
+        }
+        for (String name : new String[]{"notch", "jeb_", "dinnerbone", "a", ""}) {
+            assertSame(name, RedisKeys.uuidCache(name), RedisKeys.uuidCache(name.getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    @Test
+    public void uuidCacheShardIsStable() {
+        // Older versions put entries in the shard picked by String.hashCode, so this must never change.
+        String field = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+        String expected = "uuid-cache:" + (field.hashCode() & Integer.MAX_VALUE) % RedisKeys.UUID_CACHE_SHARDS;
+        assertEquals(expected, new String(RedisKeys.uuidCache(field), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void playerKey() {
+        UUID uuid = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+        assertEquals("player:" + uuid, new String(RedisKeys.player(uuid), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void leaseKeys() {
+        assertEquals("proxy:bungee1:lease", new String(RedisKeys.lease("bungee1"), StandardCharsets.US_ASCII));
+        assertEquals("bungee1", RedisKeys.proxyIdOfLease("proxy:bungee1:lease"));
+        assertEquals("a:b", RedisKeys.proxyIdOfLease("proxy:a:b:lease"));
+        assertNull(RedisKeys.proxyIdOfLease("proxy::lease"));
+        assertNull(RedisKeys.proxyIdOfLease("proxy:bungee1:usersOnline"));
+        assertNull(RedisKeys.proxyIdOfLease("server-names:lobby"));
+    }
+}
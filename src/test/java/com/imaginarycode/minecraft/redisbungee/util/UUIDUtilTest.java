@@ -0,0 +1,96 @@
+package com.imaginarycode.minecraft.redisbungee.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class UUIDUtilTest {
+    private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+
+    private static UUID[] sampleUuids() {
+        Random random = new Random(42);
+        UUID[] uuids = new UUID[1000];
+        uuids[0] = new UUID(0, 0);
+        uuids[1] = new UUID(-1, -1);
+        uuids[2] = NOTCH;
+        for (int i = 3; i < uuids.length; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        return uuids;
+    }
+
+    @Test
+    public void dashedRoundTrip() {
+        for (UUID uuid : sampleUuids()) {
+            String dashed = uuid.toString();
+            byte[] ascii = UUIDUtil.toAscii(uuid);
+            assertEquals(dashed, new String(ascii, StandardCharsets.US_ASCII));
+            assertEquals(uuid, UUIDUtil.fromString(dashed));
+            assertEquals(uuid, UUIDUtil.fromAscii(ascii));
+            assertTrue(UUIDUtil.isUuid(dashed));
+            assertFalse(UUIDUtil.isMojangUuid(dashed));
+        }
+    }
+
+    @Test
+    public void undashedRoundTrip() {
+        for (UUID uuid : sampleUuids()) {
+            String mojang = UUIDUtil.toMojangString(uuid);
+            assertEquals(uuid.toString().replace("-", ""), mojang);
+            assertEquals(uuid, UUIDUtil.fromString(mojang));
+            assertEquals(uuid, UUIDUtil.fromAscii(mojang.getBytes(StandardCharsets.US_ASCII)));
+            assertTrue(UUIDUtil.isMojangUuid(mojang));
+            assertFalse(UUIDUtil.isUuid(mojang));
+        }
+    }
+
+    @Test
+    public void writesAtOffset() {
+        byte[] dst = new byte[4 + UUIDUtil.DASHED_LENGTH];
+        UUIDUtil.writeAscii(NOTCH, dst, 4);
+        assertEquals(0, dst[0]);
+        assertEquals(NOTCH, UUIDUtil.fromAscii(dst, 4, UUIDUtil.DASHED_LENGTH));
+    }
+
+    @Test
+    public void acceptsUppercase() {
+        assertEquals(NOTCH, UUIDUtil.fromString("069A79F4-44E9-4726-A5BE-FCA90E38AAF5"));
+        assertEquals(NOTCH, UUIDUtil.fromString("069A79F444E94726A5BEFCA90E38AAF5"));
+        assertEquals(NOTCH, UUIDUtil.fromAscii("069A79F4-44E9-4726-A5BE-FCA90E38AAF5".getBytes(StandardCharsets.US_ASCII)));
+        assertTrue(UUIDUtil.isUuid("069A79F4-44E9-4726-A5BE-FCA90E38AAF5"));
+        assertTrue(UUIDUtil.isMojangUuid("069A79F444E94726A5BEFCA90E38AAF5"));
+    }
+
+    @Test
+    public void rejectsBadInput() {
+        String[] bad = {
+                "",
+                "Notch",
+                "069a79f4-44e9-4726-a5be-fca90e38aaf", // one short
+                "069a79f4-44e9-4726-a5be-fca90e38aaf55", // one long
+                "069a79f4044e9-4726-a5be-fca90e38aaf5", // dash replaced
+                "069a79f4-44e94-726-a5be-fca90e38aaf5", // dash moved
+                "069a79f4-44e9-4726-a5be-fca90e38aafg", // not hex
+                "069a79f444e94726a5befca90e38aafz",
+                "069a79f4-44e9-4726-a5be-fca90e38aa\u00e9f" // non-ASCII
+        };
+        for (String s : bad) {
+            assertFalse(s, UUIDUtil.isUuid(s));
+            assertFalse(s, UUIDUtil.isMojangUuid(s));
+            try {
+                UUIDUtil.fromString(s);
+                fail("Parsed " + s);
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                UUIDUtil.fromAscii(s.getBytes(StandardCharsets.UTF_8));
+                fail("Parsed " + s);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}